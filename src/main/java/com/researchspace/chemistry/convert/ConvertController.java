@@ -1,10 +1,22 @@
 package com.researchspace.chemistry.convert;
 
+import com.researchspace.chemistry.util.CacheStats;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class ConvertController {
@@ -19,4 +31,59 @@ public class ConvertController {
   public @ResponseBody String convert(@Valid @RequestBody ConvertDTO convertDTO) {
     return convertService.convert(convertDTO);
   }
+
+  /***
+   * Converts a chemical sent as the raw bytes of the request body, e.g. a binary cdx file, rather
+   * than base64 encoded in JSON.
+   */
+  @PostMapping(value = "/chemistry/convert", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public @ResponseBody String convertBytes(
+      @RequestBody byte[] input,
+      @RequestParam(required = false) String inputFormat,
+      @RequestParam String outputFormat) {
+    return convertService.convert(input, inputFormat, outputFormat);
+  }
+
+  /***
+   * Converts a chemical uploaded as a multipart file. The input format defaults to the file's
+   * extension.
+   */
+  @PostMapping(value = "/chemistry/convert", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public @ResponseBody String convertFile(
+      @RequestParam MultipartFile file,
+      @RequestParam(required = false) String inputFormat,
+      @RequestParam String outputFormat)
+      throws IOException {
+    String format =
+        inputFormat == null ? FilenameUtils.getExtension(file.getOriginalFilename()) : inputFormat;
+    return convertService.convert(file.getBytes(), format, outputFormat);
+  }
+
+  /***
+   * Converts each chemical of a batch, returning either the output or the error of each conversion
+   * in the same order as the batch.
+   */
+  @PostMapping(value = "/chemistry/convert/batch")
+  public @ResponseBody List<ConvertResult> convertBatch(
+      @RequestBody @NotEmpty List<@Valid ConvertDTO> convertDTOs) {
+    return convertService.convertAll(convertDTOs);
+  }
+
+  /***
+   * Converts a multi-record sdf or smiles file sent as the request body, writing each record to the
+   * response as soon as it's converted, so files of any size are converted in constant memory.
+   */
+  @PostMapping(value = "/chemistry/convert/stream")
+  public ResponseEntity<StreamingResponseBody> convertStream(
+      @RequestParam String inputFormat, @RequestParam String outputFormat, InputStream input) {
+    convertService.checkRecordFormats(inputFormat, outputFormat);
+    StreamingResponseBody body =
+        output -> convertService.convertRecords(input, inputFormat, outputFormat, output);
+    return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body);
+  }
+
+  @GetMapping(value = "/chemistry/convert/cache")
+  public @ResponseBody CacheStats convertCacheStats() {
+    return convertService.cacheStats();
+  }
 }
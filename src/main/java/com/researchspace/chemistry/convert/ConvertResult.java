@@ -0,0 +1,18 @@
+package com.researchspace.chemistry.convert;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/***
+ * The outcome of one conversion in a batch: either its output, or the reason it failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ConvertResult(String output, String error) {
+
+  public static ConvertResult converted(String output) {
+    return new ConvertResult(output, null);
+  }
+
+  public static ConvertResult failed(String error) {
+    return new ConvertResult(null, error);
+  }
+}
@@ -2,24 +2,75 @@ package com.researchspace.chemistry.convert;
 
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.convert.convertor.Convertor;
+import com.researchspace.chemistry.util.Batches;
+import com.researchspace.chemistry.util.CacheKeys;
+import com.researchspace.chemistry.util.CacheStats;
+import com.researchspace.chemistry.util.ChemicalRecordReader;
+import com.researchspace.chemistry.util.ChemicalRecordReader.RecordFormat;
+import com.researchspace.chemistry.util.IndigoFacade;
+import com.researchspace.chemistry.util.LruCache;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class ConvertService {
   private static final Logger LOGGER = LoggerFactory.getLogger(ConvertService.class);
 
+  // approximate bytes held by a cache entry besides its converted chemical: the hash and the node
+  private static final long CACHE_ENTRY_OVERHEAD_BYTES = 256;
+
   private final Convertor convertor;
 
-  public ConvertService(@Qualifier("compositeConvertor") Convertor convertor) {
+  private final IndigoFacade indigoFacade;
+
+  // converted chemicals, keyed by a hash of the conversion, bounded by their approximate size
+  private final LruCache<String, String> cache;
+
+  // runs the conversions of a batch in parallel
+  private final ExecutorService batchExecutor;
+
+  public ConvertService(
+      @Qualifier("compositeConvertor") Convertor convertor,
+      IndigoFacade indigoFacade,
+      @Value("${convert.cache.bytes:67108864}") long cacheBytes,
+      @Value("${convert.batch.parallelism:0}") int batchParallelism) {
     this.convertor = convertor;
+    this.indigoFacade = indigoFacade;
+    this.batchExecutor =
+        Executors.newFixedThreadPool(
+            batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors());
+    this.cache =
+        new LruCache<>(
+            cacheBytes, converted -> CACHE_ENTRY_OVERHEAD_BYTES + 2L * converted.length());
   }
 
+  /***
+   * Converts a chemical, or returns the result of converting the same input between the same
+   * formats before.
+   */
   public String convert(ConvertDTO convertDTO) {
+    String key =
+        CacheKeys.of(convertDTO.inputFormat(), convertDTO.outputFormat(), convertDTO.input());
+    Optional<String> cached = cache.get(key);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
     String inputPreview = StringUtils.abbreviate(convertDTO.input(), 50);
     LOGGER.info(
         "Converting format: {} with input: {} to output format: {}",
@@ -27,9 +78,101 @@ public class ConvertService {
         inputPreview,
         convertDTO.outputFormat());
     Optional<String> converted = convertor.convert(convertDTO);
-    return converted.orElseThrow(
-        () ->
-            new ChemistryException(
-                String.format("Unable to perform conversion to %s.", convertDTO.outputFormat())));
+    String result = converted.orElseThrow(() -> conversionFailed(convertDTO.outputFormat()));
+    cache.put(key, result);
+    return result;
+  }
+
+  /***
+   * Converts a chemical uploaded as raw bytes, e.g. a binary cdx file, which is passed to the
+   * convertors as it is rather than being base64 encoded and decoded again. Results are cached in
+   * the same way as other conversions.
+   */
+  public String convert(byte[] input, String inputFormat, String outputFormat) {
+    if (input.length == 0) {
+      throw new ChemistryException("Input is empty");
+    }
+    String key = CacheKeys.of(input, inputFormat, outputFormat);
+    Optional<String> cached = cache.get(key);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    LOGGER.info(
+        "Converting format: {} with {} bytes of input to output format: {}",
+        inputFormat,
+        input.length,
+        outputFormat);
+    Optional<String> converted = convertor.convert(input, inputFormat, outputFormat);
+    String result = converted.orElseThrow(() -> conversionFailed(outputFormat));
+    cache.put(key, result);
+    return result;
+  }
+
+  private static ChemistryException conversionFailed(String outputFormat) {
+    return new ChemistryException(
+        String.format("Unable to perform conversion to %s.", outputFormat));
+  }
+
+  /***
+   * Converts a batch of chemicals in parallel. A chemical which can't be converted doesn't stop the
+   * rest of the batch being converted.
+   *
+   * @return the result of each conversion, in the same order as the batch
+   */
+  public List<ConvertResult> convertAll(List<ConvertDTO> convertDTOs) {
+    return Batches.mapInParallel(convertDTOs, this::tryConvert, batchExecutor);
+  }
+
+  /***
+   * @throws ChemistryException if the formats aren't multi-record formats (sdf or smiles)
+   */
+  public void checkRecordFormats(String inputFormat, String outputFormat) {
+    recordFormat(inputFormat);
+    recordFormat(outputFormat);
+  }
+
+  /***
+   * Converts a multi-record sdf or smiles file, streaming each record to the output as soon as it's
+   * converted.
+   */
+  public void convertRecords(
+      InputStream input, String inputFormat, String outputFormat, OutputStream output)
+      throws IOException {
+    LOGGER.info("Converting records from {} to {}", inputFormat, outputFormat);
+    try (ChemicalRecordReader reader = new ChemicalRecordReader(input, recordFormat(inputFormat))) {
+      Writer writer =
+          new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+      int failed = indigoFacade.convertRecords(reader, recordFormat(outputFormat), writer);
+      writer.flush();
+      if (failed > 0) {
+        LOGGER.warn("{} records couldn't be converted to {}", failed, outputFormat);
+      }
+    }
+  }
+
+  private static RecordFormat recordFormat(String format) {
+    return RecordFormat.of(format)
+        .orElseThrow(
+            () ->
+                new ChemistryException(
+                    String.format(
+                        "Format %s isn't a multi-record format, use sdf or smiles.", format)));
+  }
+
+  private ConvertResult tryConvert(ConvertDTO convertDTO) {
+    try {
+      return ConvertResult.converted(convert(convertDTO));
+    } catch (ChemistryException e) {
+      return ConvertResult.failed(e.getMessage());
+    }
+  }
+
+  public CacheStats cacheStats() {
+    return cache.stats();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    batchExecutor.shutdownNow();
   }
 }
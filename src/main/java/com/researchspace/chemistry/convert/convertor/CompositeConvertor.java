@@ -1,6 +1,7 @@
 package com.researchspace.chemistry.convert.convertor;
 
 import com.researchspace.chemistry.convert.ConvertDTO;
+import com.researchspace.chemistry.util.HedgedExecutor;
 import java.util.Optional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -12,22 +13,38 @@ public class CompositeConvertor implements Convertor {
 
   private final Convertor indigoConvertor;
 
+  private final HedgedExecutor hedgedExecutor;
+
   @Autowired
   public CompositeConvertor(
       @Qualifier("openBabelConvertor") Convertor openBabel,
-      @Qualifier("indigoConvertor") Convertor indigo) {
+      @Qualifier("indigoConvertor") Convertor indigo,
+      HedgedExecutor hedgedExecutor) {
     this.openBabelConvertor = openBabel;
     this.indigoConvertor = indigo;
+    this.hedgedExecutor = hedgedExecutor;
   }
 
   @Override
   public Optional<String> convert(ConvertDTO convertDTO) {
-    Optional<String> converted;
-    converted = indigoConvertor.convert(convertDTO);
-    if (converted.isEmpty() && canBeConvertedByOpenBabel(convertDTO.inputFormat())) {
-      converted = openBabelConvertor.convert(convertDTO);
+    if (!canBeConvertedByOpenBabel(convertDTO.inputFormat())) {
+      return indigoConvertor.convert(convertDTO);
+    }
+    return hedgedExecutor.execute(
+        "conversion",
+        () -> indigoConvertor.convert(convertDTO),
+        () -> openBabelConvertor.convert(convertDTO));
+  }
+
+  @Override
+  public Optional<String> convert(byte[] input, String inputFormat, String outputFormat) {
+    if (!canBeConvertedByOpenBabel(inputFormat)) {
+      return indigoConvertor.convert(input, inputFormat, outputFormat);
     }
-    return converted;
+    return hedgedExecutor.execute(
+        "conversion",
+        () -> indigoConvertor.convert(input, inputFormat, outputFormat),
+        () -> openBabelConvertor.convert(input, inputFormat, outputFormat));
   }
 
   // OpenBabel needs to know the input format before attempting conversion
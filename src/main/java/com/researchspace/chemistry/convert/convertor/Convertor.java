@@ -6,4 +6,9 @@ import java.util.Optional;
 public interface Convertor {
 
   Optional<String> convert(ConvertDTO convertDTO);
+
+  /***
+   * Converts a chemical uploaded as raw bytes, e.g. a binary cdx file, without decoding it first.
+   */
+  Optional<String> convert(byte[] input, String inputFormat, String outputFormat);
 }
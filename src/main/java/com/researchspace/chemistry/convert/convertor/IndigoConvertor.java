@@ -17,4 +17,9 @@ public class IndigoConvertor implements Convertor {
   public Optional<String> convert(ConvertDTO convertDTO) {
     return indigo.convert(convertDTO);
   }
+
+  @Override
+  public Optional<String> convert(byte[] input, String inputFormat, String outputFormat) {
+    return indigo.convert(input, inputFormat, outputFormat);
+  }
 }
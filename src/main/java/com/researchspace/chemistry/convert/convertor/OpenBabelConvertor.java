@@ -3,10 +3,10 @@ package com.researchspace.chemistry.convert.convertor;
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.convert.ConvertDTO;
 import com.researchspace.chemistry.util.CommandExecutor;
+import com.researchspace.chemistry.util.PrespawnedProcesses;
 import jakarta.annotation.PostConstruct;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -25,8 +25,12 @@ public class OpenBabelConvertor implements Convertor {
 
   private final CommandExecutor commandExecutor;
 
-  public OpenBabelConvertor(CommandExecutor commandExecutor) {
+  private final PrespawnedProcesses prespawnedProcesses;
+
+  public OpenBabelConvertor(
+      CommandExecutor commandExecutor, PrespawnedProcesses prespawnedProcesses) {
     this.commandExecutor = commandExecutor;
+    this.prespawnedProcesses = prespawnedProcesses;
   }
 
   @PostConstruct
@@ -47,18 +51,17 @@ public class OpenBabelConvertor implements Convertor {
 
   @Override
   public Optional<String> convert(ConvertDTO convertDTO) {
+    return convert(
+        getChemBytes(convertDTO.input()), convertDTO.inputFormat(), convertDTO.outputFormat());
+  }
+
+  @Override
+  public Optional<String> convert(byte[] input, String inputFormat, String outputFormat) {
     try {
-      File tempFile = File.createTempFile("temp-", ".tmp");
-      byte[] chemBytes = getChemBytes(convertDTO.input());
-      Files.write(tempFile.toPath(), chemBytes);
-      ProcessBuilder builder = new ProcessBuilder();
-      builder.command(
-          "obabel",
-          "-i" + convertDTO.inputFormat(),
-          tempFile.getAbsolutePath(),
-          "-o" + convertDTO.outputFormat());
-      String output = String.join("\n", commandExecutor.executeCommand(builder));
-      Files.delete(tempFile.toPath());
+      // the input is read from stdin, so the same command line is used for every conversion
+      // between the same formats, and can be run on a process which was spawned in advance
+      List<String> command = List.of("obabel", "-i" + inputFormat, "-o" + outputFormat);
+      String output = String.join("\n", prespawnedProcesses.execute(command, input));
       if (output.isEmpty() || isFailedConversionOutput(output)) {
         return Optional.empty();
       }
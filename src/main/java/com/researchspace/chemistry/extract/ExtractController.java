@@ -1,10 +1,14 @@
 package com.researchspace.chemistry.extract;
 
 import jakarta.validation.Valid;
+import java.io.IOException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
 @RestController
 public class ExtractController {
@@ -20,4 +24,21 @@ public class ExtractController {
   public ExtractionResult extract(@Valid @RequestBody ExtractionRequest requestDTO) {
     return extractService.extract(requestDTO);
   }
+
+  /***
+   * Extracts from a chemical sent as the raw bytes of the request body, e.g. a binary cdx file,
+   * rather than base64 encoded in JSON.
+   */
+  @PostMapping(value = "/chemistry/extract", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ExtractionResult extractFromBytes(@RequestBody byte[] input) {
+    return extractService.extractBytes(input);
+  }
+
+  /***
+   * Extracts from a chemical uploaded as a multipart file.
+   */
+  @PostMapping(value = "/chemistry/extract", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ExtractionResult extractFromFile(@RequestParam MultipartFile file) throws IOException {
+    return extractService.extractBytes(file.getBytes());
+  }
 }
@@ -23,4 +23,9 @@ public class ExtractService {
     LOGGER.info("Extracting from input: {}", inputPreview);
     return extractor.extract(requestDTO.input());
   }
+
+  public ExtractionResult extractBytes(byte[] input) {
+    LOGGER.info("Extracting from {} bytes of input", input.length);
+    return extractor.extract(input);
+  }
 }
@@ -3,4 +3,9 @@ package com.researchspace.chemistry.extract;
 public interface Extractor {
 
   ExtractionResult extract(String input);
+
+  /***
+   * Extracts from a chemical uploaded as raw bytes, e.g. a binary cdx file.
+   */
+  ExtractionResult extract(byte[] input);
 }
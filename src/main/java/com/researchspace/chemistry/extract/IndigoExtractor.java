@@ -1,9 +1,9 @@
 package com.researchspace.chemistry.extract;
 
-import com.epam.indigo.Indigo;
 import com.epam.indigo.IndigoException;
 import com.epam.indigo.IndigoObject;
 import com.researchspace.chemistry.util.IndigoFacade;
+import com.researchspace.chemistry.util.IndigoSession;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
@@ -20,8 +20,18 @@ public class IndigoExtractor implements Extractor {
 
   @Override
   public ExtractionResult extract(String input) {
-    IndigoObject inputChemical = indigoFacade.load(new Indigo(), input);
-    return getExtractionResult(inputChemical);
+    try (IndigoSession session = indigoFacade.session()) {
+      IndigoObject inputChemical = indigoFacade.load(session.indigo(), input);
+      return getExtractionResult(inputChemical);
+    }
+  }
+
+  @Override
+  public ExtractionResult extract(byte[] input) {
+    try (IndigoSession session = indigoFacade.session()) {
+      IndigoObject inputChemical = indigoFacade.load(session.indigo(), input, null);
+      return getExtractionResult(inputChemical);
+    }
   }
 
   private ExtractionResult getExtractionResult(IndigoObject inputChemical) {
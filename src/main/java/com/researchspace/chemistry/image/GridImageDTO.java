@@ -0,0 +1,27 @@
+package com.researchspace.chemistry.image;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import java.util.List;
+
+/***
+ * Many chemicals to draw as the cells of a single grid image, e.g. a page of search results.
+ *
+ * @param columns number of cells in each row, 4 by default
+ * @param cellWidth width of each cell in pixels, 200 by default
+ * @param cellHeight height of each cell in pixels, 200 by default
+ */
+public record GridImageDTO(
+    @NotEmpty List<@Valid Cell> cells,
+    @NotBlank String outputFormat,
+    @Positive Integer columns,
+    @Positive Integer cellWidth,
+    @Positive Integer cellHeight) {
+
+  /***
+   * @param label drawn beneath the chemical, e.g. its id
+   */
+  public record Cell(@NotBlank String input, String inputFormat, String label) {}
+}
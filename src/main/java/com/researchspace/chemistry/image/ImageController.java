@@ -1,12 +1,33 @@
 package com.researchspace.chemistry.image;
 
+import com.researchspace.chemistry.util.CacheStats;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
 
+/***
+ * Exports images of chemicals. Images are returned with a strong ETag, and requests whose
+ * `If-None-Match` header holds the ETag of the cached image get a 304 response without the image
+ * being rendered.
+ */
 @Controller
 public class ImageController {
   private final ImageService imageService;
@@ -17,7 +38,103 @@ public class ImageController {
   }
 
   @PostMapping(value = "/chemistry/image")
-  public @ResponseBody byte[] exportImage(@Valid @RequestBody ImageDTO imageDTO) {
-    return imageService.exportImage(imageDTO);
+  public ResponseEntity<byte[]> exportImage(
+      @Valid @RequestBody ImageDTO imageDTO,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    return conditionalResponse(
+        ifNoneMatch,
+        () -> imageService.cachedETag(imageDTO),
+        () -> imageService.renderImage(imageDTO));
+  }
+
+  /***
+   * Exports an image of a chemical sent as the raw bytes of the request body, e.g. a binary cdx
+   * file, rather than base64 encoded in JSON.
+   */
+  @PostMapping(value = "/chemistry/image", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<byte[]> exportImageFromBytes(
+      @RequestBody byte[] input,
+      @RequestParam String inputFormat,
+      @RequestParam String outputFormat,
+      @RequestParam(required = false) String width,
+      @RequestParam(required = false) String height,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    ImageOptions options = new ImageOptions(inputFormat, outputFormat, width, height);
+    return conditionalResponse(
+        ifNoneMatch,
+        () -> imageService.cachedETag(input, options),
+        () -> imageService.renderImage(input, options));
+  }
+
+  /***
+   * Exports an image of a chemical uploaded as a multipart file. The input format defaults to the
+   * file's extension.
+   */
+  @PostMapping(value = "/chemistry/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity<byte[]> exportImageFromFile(
+      @RequestParam MultipartFile file,
+      @RequestParam(required = false) String inputFormat,
+      @RequestParam String outputFormat,
+      @RequestParam(required = false) String width,
+      @RequestParam(required = false) String height,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
+      throws IOException {
+    String format =
+        inputFormat == null ? FilenameUtils.getExtension(file.getOriginalFilename()) : inputFormat;
+    byte[] input = file.getBytes();
+    ImageOptions options = new ImageOptions(format, outputFormat, width, height);
+    return conditionalResponse(
+        ifNoneMatch,
+        () -> imageService.cachedETag(input, options),
+        () -> imageService.renderImage(input, options));
+  }
+
+  /***
+   * Exports the image of each chemical of a batch, rendered in parallel, returning either the
+   * image or the error of each export in the same order as the batch.
+   */
+  @PostMapping(value = "/chemistry/image/batch")
+  public @ResponseBody List<ImageResult> exportImageBatch(
+      @RequestBody @NotEmpty List<@Valid ImageDTO> imageDTOs) {
+    return imageService.exportImages(imageDTOs);
+  }
+
+  /***
+   * Exports a single image of many chemicals drawn as the labelled cells of a grid.
+   */
+  @PostMapping(value = "/chemistry/image/grid")
+  public @ResponseBody byte[] exportGridImage(@Valid @RequestBody GridImageDTO gridDTO) {
+    return imageService.exportGrid(gridDTO);
+  }
+
+  @GetMapping(value = "/chemistry/image/cache")
+  public @ResponseBody CacheStats imageCacheStats() {
+    return imageService.cacheStats();
+  }
+
+  private static ResponseEntity<byte[]> conditionalResponse(
+      String ifNoneMatch, Supplier<Optional<String>> cachedETag, Supplier<RenderedImage> render) {
+    if (ifNoneMatch != null) {
+      Optional<String> eTag = cachedETag.get();
+      if (eTag.isPresent() && matches(ifNoneMatch, eTag.get())) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag.get()).build();
+      }
+    }
+    RenderedImage image = render.get();
+    if (ifNoneMatch != null && matches(ifNoneMatch, image.eTag())) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(image.eTag()).build();
+    }
+    return ResponseEntity.ok().eTag(image.eTag()).body(image.image());
+  }
+
+  // If-None-Match holds a list of ETags, which are compared ignoring any weak prefix
+  private static boolean matches(String ifNoneMatch, String eTag) {
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = StringUtils.removeStart(candidate.strip(), "W/");
+      if (tag.equals("*") || tag.equals("\"" + eTag + "\"")) {
+        return true;
+      }
+    }
+    return false;
   }
 }
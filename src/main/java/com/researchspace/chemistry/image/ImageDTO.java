@@ -7,4 +7,9 @@ public record ImageDTO(
     @NotBlank String inputFormat,
     @NotBlank String outputFormat,
     String width,
-    String height) {}
+    String height) {
+
+  public ImageOptions options() {
+    return new ImageOptions(inputFormat, outputFormat, width, height);
+  }
+}
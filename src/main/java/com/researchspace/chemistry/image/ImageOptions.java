@@ -0,0 +1,7 @@
+package com.researchspace.chemistry.image;
+
+/***
+ * The formats and size of an image to generate, separate from the chemical it's generated from so
+ * that chemicals uploaded as raw bytes can be rendered in the same way as those sent as text.
+ */
+public record ImageOptions(String inputFormat, String outputFormat, String width, String height) {}
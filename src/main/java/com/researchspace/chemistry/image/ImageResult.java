@@ -0,0 +1,19 @@
+package com.researchspace.chemistry.image;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/***
+ * The outcome of exporting one image of a batch: either the image, which is base64 encoded in
+ * JSON, or the reason it couldn't be exported.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ImageResult(byte[] image, String error) {
+
+  public static ImageResult exported(byte[] image) {
+    return new ImageResult(image, null);
+  }
+
+  public static ImageResult failed(String error) {
+    return new ImageResult(null, error);
+  }
+}
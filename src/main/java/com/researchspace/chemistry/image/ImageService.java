@@ -3,39 +3,223 @@ package com.researchspace.chemistry.image;
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.image.generator.IndigoImageGenerator;
 import com.researchspace.chemistry.image.generator.OpenBabelImageGenerator;
+import com.researchspace.chemistry.util.Batches;
+import com.researchspace.chemistry.util.CacheKeys;
+import com.researchspace.chemistry.util.CacheStats;
+import com.researchspace.chemistry.util.HedgedExecutor;
+import com.researchspace.chemistry.util.LruCache;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/***
+ * Exports images of chemicals, caching them by a hash of the chemical and the image's formats and
+ * size, so the same thumbnail isn't rendered again each time it's viewed. Cached images are held
+ * in direct buffers outside the Java heap, so large images don't add to garbage collection, and
+ * the cache is bounded by `image.cache.bytes` (0 disables caching).
+ */
 @Service
 public class ImageService {
   private static final Logger LOGGER = LoggerFactory.getLogger(ImageService.class);
 
+  // approximate heap bytes held by a cache entry besides its image: the key, ETag and buffer
+  private static final long CACHE_ENTRY_OVERHEAD_BYTES = 512;
+
   private final IndigoImageGenerator indigoImageGenerator;
 
   private final OpenBabelImageGenerator openBabelImageGenerator;
 
+  private final HedgedExecutor hedgedExecutor;
+
+  private final LruCache<String, CachedImage> cache;
+
+  // exports the images of a batch in parallel
+  private final ExecutorService batchExecutor;
+
   @Autowired
   public ImageService(
-      IndigoImageGenerator indigoImageGenerator, OpenBabelImageGenerator openBabelImageGenerator) {
+      IndigoImageGenerator indigoImageGenerator,
+      OpenBabelImageGenerator openBabelImageGenerator,
+      HedgedExecutor hedgedExecutor,
+      @Value("${image.cache.bytes:67108864}") long cacheBytes,
+      @Value("${image.batch.parallelism:0}") int batchParallelism) {
     this.indigoImageGenerator = indigoImageGenerator;
     this.openBabelImageGenerator = openBabelImageGenerator;
+    this.hedgedExecutor = hedgedExecutor;
+    this.batchExecutor =
+        Executors.newFixedThreadPool(
+            batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors());
+    this.cache =
+        new LruCache<>(
+            cacheBytes, cached -> CACHE_ENTRY_OVERHEAD_BYTES + cached.image().capacity());
   }
 
   public byte[] exportImage(ImageDTO imageDTO) {
+    return renderImage(imageDTO).image();
+  }
+
+  /***
+   * Exports an image of a chemical uploaded as raw bytes, e.g. a binary cdx file.
+   */
+  public byte[] exportImage(byte[] input, ImageOptions options) {
+    return renderImage(input, options).image();
+  }
+
+  /***
+   * @return the image, from the cache if it has been exported before, along with its ETag
+   */
+  public RenderedImage renderImage(ImageDTO imageDTO) {
+    return cachedOrRendered(cacheKey(imageDTO), () -> generate(imageDTO));
+  }
+
+  /***
+   * Renders an image into the cache before it's first requested, unless it's already cached.
+   * Pre-rendering isn't counted as a cache hit or miss.
+   *
+   * @return whether the image was rendered
+   */
+  public boolean prerenderImage(ImageDTO imageDTO) {
+    String key = cacheKey(imageDTO);
+    if (cache.containsKey(key)) {
+      return false;
+    }
+    Optional<byte[]> image = generate(imageDTO).filter(bytes -> bytes.length > 0);
+    image.ifPresent(bytes -> cache.put(key, CachedImage.of(bytes, DigestUtils.sha256Hex(bytes))));
+    return image.isPresent();
+  }
+
+  private Optional<byte[]> generate(ImageDTO imageDTO) {
     LOGGER.info("Exporting image to: {}", imageDTO.outputFormat());
-    Optional<byte[]> image = indigoImageGenerator.generateImage(imageDTO);
+    return hedgedExecutor.execute(
+        "image generation",
+        () -> indigoImageGenerator.generateImage(imageDTO),
+        () -> openBabelImageGenerator.generateImage(imageDTO));
+  }
+
+  /***
+   * @return the image of a chemical uploaded as raw bytes, from the cache if it has been exported
+   *     before, along with its ETag
+   */
+  public RenderedImage renderImage(byte[] input, ImageOptions options) {
+    return cachedOrRendered(
+        cacheKey(input, options),
+        () -> {
+          LOGGER.info(
+              "Exporting image of {} bytes to: {}", input.length, options.outputFormat());
+          return hedgedExecutor.execute(
+              "image generation",
+              () -> indigoImageGenerator.generateImage(input, options),
+              () -> openBabelImageGenerator.generateImage(input, options));
+        });
+  }
+
+  /***
+   * Exports the images of a batch in parallel. An image which can't be exported doesn't stop the
+   * rest of the batch being exported.
+   *
+   * @return the result of each export, in the same order as the batch
+   */
+  public List<ImageResult> exportImages(List<ImageDTO> imageDTOs) {
+    return Batches.mapInParallel(imageDTOs, this::tryExport, batchExecutor);
+  }
+
+  /***
+   * Draws many chemicals as the labelled cells of a single grid image.
+   */
+  public byte[] exportGrid(GridImageDTO gridDTO) {
+    LOGGER.info(
+        "Exporting grid of {} images to: {}", gridDTO.cells().size(), gridDTO.outputFormat());
+    return indigoImageGenerator
+        .generateGrid(gridDTO)
+        .orElseThrow(
+            () ->
+                new ChemistryException(
+                    "Grid images can't be exported to " + gridDTO.outputFormat()));
+  }
 
-    if (image.isEmpty()) {
-      image = openBabelImageGenerator.generateImage(imageDTO);
+  private ImageResult tryExport(ImageDTO imageDTO) {
+    try {
+      return ImageResult.exported(exportImage(imageDTO));
+    } catch (ChemistryException e) {
+      return ImageResult.failed(e.getMessage());
     }
+  }
+
+  /***
+   * @return the ETag of the image if it's cached, so a conditional request can be answered without
+   *     rendering it
+   */
+  public Optional<String> cachedETag(ImageDTO imageDTO) {
+    return cache.peek(cacheKey(imageDTO)).map(CachedImage::eTag);
+  }
+
+  public Optional<String> cachedETag(byte[] input, ImageOptions options) {
+    return cache.peek(cacheKey(input, options)).map(CachedImage::eTag);
+  }
 
-    if (image.isPresent() && image.get().length > 0) {
-      return image.get();
-    } else {
+  public CacheStats cacheStats() {
+    return cache.stats();
+  }
+
+  private RenderedImage cachedOrRendered(String key, Supplier<Optional<byte[]>> generator) {
+    Optional<CachedImage> cached = cache.get(key);
+    if (cached.isPresent()) {
+      return cached.get().toRenderedImage();
+    }
+    Optional<byte[]> image = generator.get();
+    if (image.isEmpty() || image.get().length == 0) {
       throw new ChemistryException("Failed to generate image with all available libraries.");
     }
+    String eTag = DigestUtils.sha256Hex(image.get());
+    cache.put(key, CachedImage.of(image.get(), eTag));
+    return new RenderedImage(image.get(), eTag);
+  }
+
+  private static String cacheKey(ImageDTO imageDTO) {
+    return CacheKeys.of(
+        imageDTO.inputFormat(),
+        imageDTO.outputFormat(),
+        imageDTO.width(),
+        imageDTO.height(),
+        imageDTO.input());
+  }
+
+  private static String cacheKey(byte[] input, ImageOptions options) {
+    return CacheKeys.of(
+        input, options.inputFormat(), options.outputFormat(), options.width(), options.height());
+  }
+
+  /***
+   * An image held outside the heap, which is copied back onto the heap each time it's returned.
+   */
+  private record CachedImage(ByteBuffer image, String eTag) {
+
+    static CachedImage of(byte[] image, String eTag) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(image.length);
+      buffer.put(image).flip();
+      return new CachedImage(buffer.asReadOnlyBuffer(), eTag);
+    }
+
+    RenderedImage toRenderedImage() {
+      byte[] bytes = new byte[image.capacity()];
+      // a duplicate has its own position, so the image can be read by many threads at once
+      image.duplicate().get(bytes);
+      return new RenderedImage(bytes, eTag);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    batchExecutor.shutdownNow();
   }
 }
@@ -0,0 +1,7 @@
+package com.researchspace.chemistry.image;
+
+/***
+ * An exported image, and its ETag: a hash of the image's bytes, so it only matches an identical
+ * image.
+ */
+public record RenderedImage(byte[] image, String eTag) {}
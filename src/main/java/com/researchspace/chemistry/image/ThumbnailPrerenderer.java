@@ -0,0 +1,104 @@
+package com.researchspace.chemistry.image;
+
+import com.researchspace.chemistry.ChemistryException;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/***
+ * Renders thumbnails of saved chemicals into the image cache in the background, so the first view
+ * of a chemical, e.g. as a search hit, doesn't wait for it to be rendered.
+ *
+ * Thumbnails are rendered in the `image.prerender.format` format at each of the
+ * `image.prerender.sizes` sizes (e.g. `100x100,500x500`), and only if sizes are configured. They're
+ * rendered on a single low priority thread, and chemicals saved while `image.prerender.queue.size`
+ * are already waiting are skipped rather than slowing down saving.
+ */
+@Service
+public class ThumbnailPrerenderer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailPrerenderer.class);
+
+  private final ImageService imageService;
+
+  private final String outputFormat;
+
+  private final List<Size> sizes;
+
+  private final ThreadPoolExecutor executor;
+
+  public ThumbnailPrerenderer(
+      ImageService imageService,
+      @Value("${image.prerender.sizes:}") List<String> sizes,
+      @Value("${image.prerender.format:png}") String outputFormat,
+      @Value("${image.prerender.queue.size:1000}") int queueSize) {
+    this.imageService = imageService;
+    this.outputFormat = outputFormat;
+    this.sizes = sizes.stream().filter(size -> !size.isBlank()).map(Size::parse).toList();
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+              Thread thread = new Thread(runnable, "thumbnail-prerender");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+  }
+
+  /***
+   * Queues the chemical's thumbnails to be rendered, unless pre-rendering is disabled or the queue
+   * is full.
+   */
+  public void prerender(String input, String inputFormat) {
+    if (sizes.isEmpty()) {
+      return;
+    }
+    try {
+      executor.execute(() -> render(input, inputFormat));
+    } catch (RejectedExecutionException e) {
+      LOGGER.debug("Thumbnail queue is full, not pre-rendering chemical.");
+    }
+  }
+
+  private void render(String input, String inputFormat) {
+    for (Size size : sizes) {
+      ImageDTO imageDTO = new ImageDTO(input, inputFormat, outputFormat, size.width, size.height);
+      try {
+        imageService.prerenderImage(imageDTO);
+      } catch (RuntimeException e) {
+        // the image is rendered, and any error reported, when it's requested
+        LOGGER.debug("Unable to pre-render thumbnail: {}", e.getMessage());
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private record Size(String width, String height) {
+
+    static Size parse(String size) {
+      String[] widthAndHeight = size.strip().split("x");
+      if (widthAndHeight.length != 2
+          || !widthAndHeight[0].matches("\\d+")
+          || !widthAndHeight[1].matches("\\d+")) {
+        throw new ChemistryException(
+            "Thumbnail sizes must be of the form {width}x{height}, but found: " + size);
+      }
+      return new Size(widthAndHeight[0], widthAndHeight[1]);
+    }
+  }
+}
@@ -1,9 +1,16 @@
 package com.researchspace.chemistry.image.generator;
 
 import com.researchspace.chemistry.image.ImageDTO;
+import com.researchspace.chemistry.image.ImageOptions;
 import java.util.Optional;
 
 public interface ImageGenerator {
 
   Optional<byte[]> generateImage(ImageDTO imageDTO);
+
+  /***
+   * Generates an image of a chemical uploaded as raw bytes, e.g. a binary cdx file, without
+   * decoding it first.
+   */
+  Optional<byte[]> generateImage(byte[] input, ImageOptions options);
 }
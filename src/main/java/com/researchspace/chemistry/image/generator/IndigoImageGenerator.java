@@ -3,18 +3,23 @@ package com.researchspace.chemistry.image.generator;
 import com.epam.indigo.Indigo;
 import com.epam.indigo.IndigoException;
 import com.epam.indigo.IndigoObject;
-import com.epam.indigo.IndigoRenderer;
 import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.image.GridImageDTO;
 import com.researchspace.chemistry.image.ImageDTO;
+import com.researchspace.chemistry.image.ImageOptions;
+import com.researchspace.chemistry.util.CacheKeys;
+import com.researchspace.chemistry.util.CacheStats;
 import com.researchspace.chemistry.util.IndigoFacade;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import com.researchspace.chemistry.util.IndigoSession;
+import com.researchspace.chemistry.util.LruCache;
 import java.io.IOException;
 import java.util.Optional;
-import javax.imageio.ImageIO;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -22,27 +27,136 @@ import org.springframework.stereotype.Service;
  * format. Images generated by this class will retain much of the information from the input, with
  * the downside of lower success rate (compared to other {@link ImageGenerator}s) of conversion from
  * the original files.
+ *
+ * Laying out a chemical without coordinates (e.g. finding 2D coordinates for smiles) is done once
+ * per chemical rather than once per image size: the laid out chemical is cached as ket, keyed by
+ * the chemical and its input format but not the image's size or format, so further sizes of the
+ * same chemical load the cached coordinates rather than laying it out again. Chemicals which come
+ * with coordinates are drawn from their input as they are, and nothing is cached for them. The
+ * cache is bounded by `image.layout.cache.bytes` (0 disables it).
  */
 @Service
 public class IndigoImageGenerator implements ImageGenerator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndigoImageGenerator.class);
+
+  // approximate heap bytes held by a layout cache entry besides its ket, mostly the key
+  private static final long CACHE_ENTRY_OVERHEAD_BYTES = 256;
+
   private final IndigoFacade indigoFacade;
 
   private static final String DEFAULT_WIDTH_HEIGHT = "500";
 
-  public IndigoImageGenerator(IndigoFacade indigoFacade) {
+  private static final int DEFAULT_GRID_COLUMNS = 4;
+
+  private static final int DEFAULT_GRID_CELL_SIZE = 200;
+
+  // property of each chemical in a grid which holds the label drawn beneath it
+  private static final String GRID_LABEL_PROPERTY = "grid-label";
+
+  private final JpegEncoder jpegEncoder;
+
+  // laid out chemicals as ket, by a hash of the chemical and its input format
+  private final LruCache<String, String> layouts;
+
+  private final boolean cacheLayouts;
+
+  public IndigoImageGenerator(
+      IndigoFacade indigoFacade,
+      @Value("${image.jpeg.quality:0.75}") float jpegQuality,
+      @Value("${image.layout.cache.bytes:16777216}") long layoutCacheBytes) {
     this.indigoFacade = indigoFacade;
+    this.jpegEncoder = new JpegEncoder(jpegQuality);
+    this.layouts =
+        new LruCache<>(layoutCacheBytes, ket -> CACHE_ENTRY_OVERHEAD_BYTES + 2L * ket.length());
+    this.cacheLayouts = layoutCacheBytes > 0;
   }
 
   @Override
   public Optional<byte[]> generateImage(ImageDTO imageDTO) {
+    return generateImage(
+        laidOut(
+            () -> CacheKeys.of(imageDTO.inputFormat(), imageDTO.input()),
+            indigo -> indigoFacade.load(indigo, imageDTO.input(), imageDTO.inputFormat())),
+        imageDTO.options());
+  }
+
+  @Override
+  public Optional<byte[]> generateImage(byte[] input, ImageOptions options) {
+    return generateImage(
+        laidOut(
+            () -> CacheKeys.of(input, options.inputFormat()),
+            indigo -> indigoFacade.load(indigo, input, options.inputFormat())),
+        options);
+  }
+
+  public CacheStats layoutCacheStats() {
+    return layouts.stats();
+  }
+
+  /***
+   * Wraps a loader so a chemical without coordinates is drawn from its cached layout. If it hasn't
+   * been drawn before, it's laid out, and its layout cached and loaded back, so the first image of
+   * it is drawn the same way as the ones after it. Chemicals with coordinates of their own are
+   * drawn as loaded, so nothing in them is lost to a ket round trip.
+   */
+  private Function<Indigo, IndigoObject> laidOut(
+      Supplier<String> cacheKey, Function<Indigo, IndigoObject> loader) {
+    if (!cacheLayouts) {
+      return loader;
+    }
+    return indigo -> {
+      String key = cacheKey.get();
+      Optional<String> layout = layouts.get(key);
+      if (layout.isPresent()) {
+        try {
+          return indigoFacade.load(indigo, layout.get(), "ket");
+        } catch (ChemistryException e) {
+          LOGGER.warn("Unable to load cached layout, loading chemical again: {}", e.getMessage());
+        }
+      }
+      IndigoObject chemical = loader.apply(indigo);
+      try {
+        if (hasCoordinates(chemical)) {
+          return chemical;
+        }
+        chemical.layout();
+        String ket = chemical.json();
+        IndigoObject laidOut = indigoFacade.load(indigo, ket, "ket");
+        layouts.put(key, ket);
+        return laidOut;
+      } catch (IndigoException | ChemistryException e) {
+        // the chemical can still be drawn, it just won't be laid out ahead of rendering next time
+        LOGGER.debug("Unable to cache layout of chemical: {}", e.getMessage());
+        return chemical;
+      }
+    };
+  }
+
+  // only chemicals without coordinates are laid out, so layouts drawn by users are kept
+  private static boolean hasCoordinates(IndigoObject chemical) {
+    try {
+      return chemical.hasCoord();
+    } catch (IndigoException e) {
+      // reactions don't have coordinates themselves, only the molecules in them do
+      for (IndigoObject molecule : chemical.iterateMolecules()) {
+        if (molecule.hasCoord()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private Optional<byte[]> generateImage(
+      Function<Indigo, IndigoObject> loader, ImageOptions options) {
     try {
-      String outputFormat = imageDTO.outputFormat();
+      String outputFormat = options.outputFormat();
       if (outputFormat == null || outputFormat.isEmpty()) {
         throw new ChemistryException("Output format is empty");
       }
       return switch (outputFormat) {
-        case "jpg", "jpeg" -> Optional.of(convertPngToJpg(imageDTO));
-        case "png", "svg" -> Optional.of(render(imageDTO));
+        case "jpg", "jpeg" -> Optional.of(convertPngToJpg(loader, options));
+        case "png", "svg" -> Optional.of(render(loader, options));
         default -> Optional.empty();
       };
     } catch (ChemistryException e) {
@@ -50,56 +164,92 @@ public class IndigoImageGenerator implements ImageGenerator {
     }
   }
 
-  private byte[] convertPngToJpg(ImageDTO imageDTO) {
-    Indigo indigo = new Indigo();
-    IndigoRenderer renderer = new IndigoRenderer(indigo);
-    try {
-      File tmpPng = File.createTempFile("pre", ".png");
-      IndigoObject indigoObject = indigoFacade.load(indigo, imageDTO.input());
+  // rendered as png with a white background, which is then converted to jpg in memory
+  private byte[] convertPngToJpg(Function<Indigo, IndigoObject> loader, ImageOptions options) {
+    try (IndigoSession session = indigoFacade.session()) {
+      Indigo indigo = session.indigo();
+      IndigoObject indigoObject = loader.apply(indigo);
       indigo.setOption("render-output-format", "png");
       indigo.setOption("render-margins", 10, 10);
-      indigo.setOption("render-image-size", generateImageSize(imageDTO));
+      indigo.setOption("render-image-size", generateImageSize(options));
       indigo.setOption("render-coloring", true);
-      renderer.renderToFile(indigoObject, tmpPng.getPath());
-
-      BufferedImage bufferedImage = ImageIO.read(tmpPng);
-      ByteArrayOutputStream bufferedImageOut = new ByteArrayOutputStream();
-
-      BufferedImage newBufferedImage =
-          new BufferedImage(
-              bufferedImage.getWidth(), bufferedImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-      newBufferedImage.createGraphics().drawImage(bufferedImage, 0, 0, Color.WHITE, null);
-      ImageIO.write(newBufferedImage, "jpg", bufferedImageOut);
-      tmpPng.delete();
-      return bufferedImageOut.toByteArray();
-    } catch (IOException e) {
+      indigo.setOption("render-background-color", 1f, 1f, 1f);
+      return jpegEncoder.pngToJpg(session.renderer().renderToBuffer(indigoObject));
+    } catch (IndigoException | IOException e) {
       throw new ChemistryException("Unable to generate image: ", e);
     }
   }
 
-  private byte[] render(ImageDTO imageDTO) {
-    Indigo indigo = new Indigo();
-    indigo.setOption("ignore-stereochemistry-errors", true);
-    IndigoObject indigoObject = indigoFacade.load(indigo, imageDTO.input());
+  private byte[] render(Function<Indigo, IndigoObject> loader, ImageOptions options) {
+    try (IndigoSession session = indigoFacade.session()) {
+      Indigo indigo = session.indigo();
+      IndigoObject indigoObject = loader.apply(indigo);
 
-    IndigoRenderer renderer = new IndigoRenderer(indigo);
-    indigo.setOption("render-output-format", imageDTO.outputFormat());
-    indigo.setOption("render-margins", 10, 10);
-    indigo.setOption("render-image-size", generateImageSize(imageDTO));
-    indigo.setOption("render-coloring", generateImageSize(imageDTO));
-    try {
-      return renderer.renderToBuffer(indigoObject);
+      indigo.setOption("render-output-format", options.outputFormat());
+      indigo.setOption("render-margins", 10, 10);
+      indigo.setOption("render-image-size", generateImageSize(options));
+      indigo.setOption("render-coloring", generateImageSize(options));
+      return session.renderer().renderToBuffer(indigoObject);
     } catch (IndigoException e) {
       throw new ChemistryException("Error rendering image", e);
     }
   }
 
-  private String generateImageSize(ImageDTO imageDTO) {
+  /***
+   * Draws many chemicals as the cells of a single grid image, with one session and one render,
+   * each labelled beneath. Chemicals which can't be loaded are left as empty cells, so one bad
+   * chemical doesn't stop the rest being drawn.
+   */
+  public Optional<byte[]> generateGrid(GridImageDTO gridDTO) {
+    String outputFormat = gridDTO.outputFormat();
+    boolean jpg = outputFormat.equals("jpg") || outputFormat.equals("jpeg");
+    if (!jpg && !outputFormat.equals("png") && !outputFormat.equals("svg")) {
+      return Optional.empty();
+    }
+    int cellCount = gridDTO.cells().size();
+    int columns =
+        Math.min(cellCount, gridDTO.columns() == null ? DEFAULT_GRID_COLUMNS : gridDTO.columns());
+    int rows = (cellCount + columns - 1) / columns;
+    int cellWidth = gridDTO.cellWidth() == null ? DEFAULT_GRID_CELL_SIZE : gridDTO.cellWidth();
+    int cellHeight = gridDTO.cellHeight() == null ? DEFAULT_GRID_CELL_SIZE : gridDTO.cellHeight();
+    try (IndigoSession session = indigoFacade.session()) {
+      Indigo indigo = session.indigo();
+      IndigoObject cells = indigo.createArray();
+      for (int i = 0; i < cellCount; i++) {
+        GridImageDTO.Cell cell = gridDTO.cells().get(i);
+        IndigoObject chemical;
+        try {
+          chemical = indigoFacade.load(indigo, cell.input(), cell.inputFormat());
+        } catch (ChemistryException e) {
+          LOGGER.warn("Leaving grid cell {} empty: {}", i, e.getMessage());
+          chemical = indigo.createMolecule();
+        }
+        chemical.setProperty(GRID_LABEL_PROPERTY, StringUtils.defaultString(cell.label()));
+        cells.arrayAdd(chemical);
+      }
+      indigo.setOption("render-output-format", jpg ? "png" : outputFormat);
+      indigo.setOption("render-margins", 10, 10);
+      indigo.setOption("render-grid-margins", 10, 10);
+      indigo.setOption("render-grid-title-property", GRID_LABEL_PROPERTY);
+      indigo.setOption(
+          "render-image-size", String.format("%d,%d", columns * cellWidth, rows * cellHeight));
+      indigo.setOption("render-coloring", true);
+      if (jpg) {
+        indigo.setOption("render-background-color", 1f, 1f, 1f);
+      }
+      byte[] grid = session.renderer().renderGridToBuffer(cells, null, columns);
+      return Optional.of(jpg ? jpegEncoder.pngToJpg(grid) : grid);
+    } catch (IndigoException | IOException e) {
+      throw new ChemistryException("Error rendering grid image", e);
+    }
+  }
+
+
+  private String generateImageSize(ImageOptions options) {
     String imageSizeFormat = "%s,%s";
-    if (StringUtils.isEmpty(imageDTO.width()) || StringUtils.isEmpty(imageDTO.height())) {
+    if (StringUtils.isEmpty(options.width()) || StringUtils.isEmpty(options.height())) {
       return String.format(imageSizeFormat, DEFAULT_WIDTH_HEIGHT, DEFAULT_WIDTH_HEIGHT);
     }
-    return String.format(imageSizeFormat, imageDTO.width(), imageDTO.height());
+    return String.format(imageSizeFormat, options.width(), options.height());
   }
 }
@@ -0,0 +1,122 @@
+package com.researchspace.chemistry.image.generator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/***
+ * Converts rendered PNG images to JPEG entirely in memory. ImageIO readers and writers aren't
+ * thread safe, so each thread reuses its own PNG reader and JPEG writer rather than looking them
+ * up for every image, and images are streamed through memory rather than ImageIO's file cache.
+ *
+ * Opaque images are written without being copied: their colour bands are written as they are,
+ * without the alpha band JPEG can't hold. Images with transparent pixels are drawn onto a white
+ * background first.
+ */
+final class JpegEncoder {
+
+  private static final ColorModel OPAQUE_RGB =
+      new ComponentColorModel(
+          ColorSpace.getInstance(ColorSpace.CS_sRGB),
+          false,
+          false,
+          Transparency.OPAQUE,
+          DataBuffer.TYPE_BYTE);
+
+  private final float quality;
+
+  private final ThreadLocal<ImageReader> pngReaders =
+      ThreadLocal.withInitial(() -> ImageIO.getImageReadersByFormatName("png").next());
+
+  private final ThreadLocal<ImageWriter> jpegWriters =
+      ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName("jpg").next());
+
+  /***
+   * @param quality JPEG compression quality, from 0 (smallest) to 1 (best)
+   */
+  JpegEncoder(float quality) {
+    this.quality = quality;
+  }
+
+  byte[] pngToJpg(byte[] png) throws IOException {
+    return encode(opaque(decode(png)));
+  }
+
+  private BufferedImage decode(byte[] png) throws IOException {
+    ImageReader reader = pngReaders.get();
+    try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(png))) {
+      reader.setInput(input);
+      return reader.read(0);
+    } finally {
+      reader.reset();
+    }
+  }
+
+  private byte[] encode(BufferedImage image) throws IOException {
+    ImageWriter writer = jpegWriters.get();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    ByteArrayOutputStream jpg = new ByteArrayOutputStream();
+    try (ImageOutputStream output = new MemoryCacheImageOutputStream(jpg)) {
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.reset();
+    }
+    return jpg.toByteArray();
+  }
+
+  private static BufferedImage opaque(BufferedImage image) {
+    if (!image.getColorModel().hasAlpha()) {
+      return image;
+    }
+    WritableRaster raster = image.getRaster();
+    if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR && isOpaque(raster)) {
+      // bands are red, green, blue then alpha, so the first three are the image without alpha
+      WritableRaster rgb =
+          raster.createWritableChild(
+              0, 0, raster.getWidth(), raster.getHeight(), 0, 0, new int[] {0, 1, 2});
+      return new BufferedImage(OPAQUE_RGB, rgb, false, null);
+    }
+    BufferedImage onWhite =
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = onWhite.createGraphics();
+    graphics.drawImage(image, 0, 0, Color.WHITE, null);
+    graphics.dispose();
+    return onWhite;
+  }
+
+  private static boolean isOpaque(Raster raster) {
+    int alphaBand = raster.getNumBands() - 1;
+    int[] alpha = new int[raster.getWidth()];
+    for (int y = 0; y < raster.getHeight(); y++) {
+      raster.getSamples(0, y, raster.getWidth(), 1, alphaBand, alpha);
+      for (int sample : alpha) {
+        if (sample != 255) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -1,10 +1,10 @@
 package com.researchspace.chemistry.image.generator;
 
 import com.researchspace.chemistry.image.ImageDTO;
-import com.researchspace.chemistry.util.CommandExecutor;
-import java.io.File;
+import com.researchspace.chemistry.image.ImageOptions;
+import com.researchspace.chemistry.util.PrespawnedProcesses;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -23,10 +23,10 @@ import org.springframework.stereotype.Service;
 public class OpenBabelImageGenerator implements ImageGenerator {
   private static final Logger LOGGER = LoggerFactory.getLogger(OpenBabelImageGenerator.class);
 
-  private final CommandExecutor commandExecutor;
+  private final PrespawnedProcesses prespawnedProcesses;
 
-  public OpenBabelImageGenerator(CommandExecutor commandExecutor) {
-    this.commandExecutor = commandExecutor;
+  public OpenBabelImageGenerator(PrespawnedProcesses prespawnedProcesses) {
+    this.prespawnedProcesses = prespawnedProcesses;
   }
 
   @Override
@@ -34,40 +34,32 @@ public class OpenBabelImageGenerator implements ImageGenerator {
     if (imageDTO.inputFormat().equalsIgnoreCase("pdb")) {
       return readDefaultPdbImage();
     }
+    return generateImage(getChemBytes(imageDTO.input()), imageDTO.options());
+  }
 
-    File inFile = null;
-    File outFile = null;
-    try {
-      inFile = File.createTempFile("temp-", "." + imageDTO.inputFormat());
-      outFile = File.createTempFile("temp-", "." + imageDTO.outputFormat());
-
-      byte[] chemBytes = getChemBytes(imageDTO.input());
-
-      Files.write(inFile.toPath(), chemBytes);
-
-      ProcessBuilder builder = new ProcessBuilder();
-
-      builder.command(
-          "obabel",
-          inFile.getAbsolutePath(),
-          "-xd",
-          "-O",
-          outFile.getAbsolutePath(),
-          "-h" + imageDTO.height(),
-          "-w" + imageDTO.width());
-
-      commandExecutor.executeCommand(builder);
+  @Override
+  public Optional<byte[]> generateImage(byte[] input, ImageOptions options) {
+    if (options.inputFormat().equalsIgnoreCase("pdb")) {
+      return readDefaultPdbImage();
+    }
 
-      return Optional.of(Files.readAllBytes(outFile.toPath()));
-    } catch (IOException | ExecutionException | InterruptedException | TimeoutException e) {
+    try {
+      // the chemical is read from stdin and the image written to stdout, so no files are needed
+      List<String> command =
+          List.of(
+              "obabel",
+              "-i" + options.inputFormat(),
+              "-o" + options.outputFormat(),
+              "-xd",
+              "-h" + options.height(),
+              "-w" + options.width());
+      byte[] image = prespawnedProcesses.executeForBytes(command, input);
+      return image.length == 0 ? Optional.empty() : Optional.of(image);
+    } catch (IOException | ExecutionException | TimeoutException e) {
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       return Optional.empty();
-    } finally {
-      try {
-        Files.delete(inFile.toPath());
-        Files.delete(outFile.toPath());
-      } catch (IOException e) {
-        LOGGER.warn("Unable to delete temp files.", e);
-      }
     }
   }
 
@@ -0,0 +1,9 @@
+package com.researchspace.chemistry.search;
+
+import com.researchspace.chemistry.util.CacheStats;
+
+/***
+ * @param results cached pages of search results
+ * @param searchTerms cached conversions of search terms to the smiles they're searched by
+ */
+public record SearchCacheStats(CacheStats results, CacheStats searchTerms) {}
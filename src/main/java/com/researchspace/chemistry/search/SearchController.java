@@ -1,23 +1,35 @@
 package com.researchspace.chemistry.search;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.researchspace.chemistry.search.engine.SearchHit;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class SearchController {
 
   private final SearchService searchService;
 
-  public SearchController(SearchService searchService) {
+  private final ObjectMapper objectMapper;
+
+  public SearchController(SearchService searchService, ObjectMapper objectMapper) {
     this.searchService = searchService;
+    this.objectMapper = objectMapper;
   }
 
   @DeleteMapping(value = "/chemistry/clearSearchIndexes")
@@ -32,12 +44,53 @@ public class SearchController {
     return "Saved";
   }
 
+  @PostMapping(value = "/chemistry/save/batch")
+  public @ResponseBody String saveBatch(@RequestBody @NotEmpty List<@Valid SaveDTO> saveDTOs)
+      throws IOException {
+    searchService.saveChemicals(saveDTOs);
+    return "Saved";
+  }
+
   @PostMapping(value = "/chemistry/search")
   public @ResponseBody List<String> search(@Valid @RequestBody SearchDTO searchDTO)
       throws IOException, ExecutionException, InterruptedException, TimeoutException {
     return searchService.search(searchDTO);
   }
 
+  @PostMapping(value = "/chemistry/search/page")
+  public @ResponseBody SearchPage searchPage(@Valid @RequestBody SearchDTO searchDTO)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    return searchService.searchPage(searchDTO);
+  }
+
+  /***
+   * Writes each hit as a line of JSON as soon as it's found. The search term is converted before
+   * the response starts, so invalid search terms are still reported with an error status.
+   */
+  @PostMapping(value = "/chemistry/search/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> searchStream(
+      @Valid @RequestBody SearchDTO searchDTO)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    Stream<SearchHit> hits = searchService.searchHits(searchDTO);
+    StreamingResponseBody body =
+        outputStream -> {
+          try (hits) {
+            Iterator<SearchHit> iterator = hits.iterator();
+            while (iterator.hasNext()) {
+              outputStream.write(objectMapper.writeValueAsBytes(iterator.next()));
+              outputStream.write('\n');
+              outputStream.flush();
+            }
+          }
+        };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+  }
+
+  @GetMapping(value = "/chemistry/search/cache")
+  public @ResponseBody SearchCacheStats searchCacheStats() {
+    return searchService.cacheStats();
+  }
+
   @PostMapping(value = "/chemistry/index")
   public @ResponseBody String index()
       throws IOException, ExecutionException, InterruptedException, TimeoutException {
@@ -1,9 +1,28 @@
 package com.researchspace.chemistry.search;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import org.apache.commons.lang3.StringUtils;
 
+/***
+ * @param limit maximum number of ids to return, or null for all of them
+ * @param cursor `nextCursor` of the previous page of results, or null for the first page.
+ *     Similarity searches are ranked rather than paged, so can't have a cursor.
+ * @param similarityThreshold minimum Tanimoto similarity of chemicals found by similarity searches
+ * @param topK maximum number of the most similar chemicals found by similarity searches
+ */
 public record SearchDTO(
-    @NotBlank String chemicalSearchTerm, String searchTermFormat, SearchType searchType) {
+    @NotBlank String chemicalSearchTerm,
+    String searchTermFormat,
+    SearchType searchType,
+    @Positive Integer limit,
+    String cursor,
+    @DecimalMin(value = "0.0", inclusive = false) @DecimalMax("1.0") Double similarityThreshold,
+    @Positive Integer topK) {
 
   public SearchDTO(String chemicalSearchTerm) {
     this(chemicalSearchTerm, "", SearchType.SUBSTRUCTURE);
@@ -16,4 +35,23 @@ public record SearchDTO(
   public SearchDTO(String chemicalSearchTerm, SearchType searchType) {
     this(chemicalSearchTerm, "", searchType);
   }
+
+  public SearchDTO(String chemicalSearchTerm, String searchTermFormat, SearchType searchType) {
+    this(chemicalSearchTerm, searchTermFormat, searchType, null, null);
+  }
+
+  public SearchDTO(
+      String chemicalSearchTerm,
+      String searchTermFormat,
+      SearchType searchType,
+      Integer limit,
+      String cursor) {
+    this(chemicalSearchTerm, searchTermFormat, searchType, limit, cursor, null, null);
+  }
+
+  @JsonIgnore
+  @AssertTrue(message = "Similarity searches can't be resumed from a cursor")
+  public boolean isCursorSupported() {
+    return StringUtils.isBlank(cursor) || !SearchType.SIMILARITY.equals(searchType);
+  }
 }
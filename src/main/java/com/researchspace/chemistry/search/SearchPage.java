@@ -0,0 +1,10 @@
+package com.researchspace.chemistry.search;
+
+import java.util.List;
+
+/***
+ * @param chemicalIds ids of the chemicals found, each only once within the page. A chemical saved
+ *     more than once may appear again on a later page.
+ * @param nextCursor cursor for the following page, or null if there are no more results
+ */
+public record SearchPage(List<String> chemicalIds, String nextCursor) {}
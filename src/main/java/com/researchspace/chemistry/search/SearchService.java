@@ -1,24 +1,38 @@
 package com.researchspace.chemistry.search;
 
+import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.convert.ConvertDTO;
 import com.researchspace.chemistry.convert.ConvertService;
 import com.researchspace.chemistry.convert.convertor.OpenBabelConvertor;
-import com.researchspace.chemistry.util.CommandExecutor;
+import com.researchspace.chemistry.image.ThumbnailPrerenderer;
+import com.researchspace.chemistry.search.engine.SearchEngine;
+import com.researchspace.chemistry.search.engine.SearchHit;
+import com.researchspace.chemistry.search.engine.SearchableChemical;
+import com.researchspace.chemistry.util.Batches;
+import com.researchspace.chemistry.util.IndigoFacade;
+import com.researchspace.chemistry.util.LruCache;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
-import org.apache.commons.lang3.StringUtils;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -35,31 +49,80 @@ public class SearchService {
 
   private static final String CHEM_FILE_FORMAT = "smi";
 
+  private static final double DEFAULT_SIMILARITY_THRESHOLD = 0.7;
+
+  private static final int DEFAULT_TOP_K = 100;
+
+  // approximate heap bytes held by a cached page besides its ids: the key, page and list
+  private static final long CACHE_ENTRY_OVERHEAD_BYTES = 256;
+
+  // approximate heap bytes held by each id of a cached page besides its chars
+  private static final long CACHED_ID_OVERHEAD_BYTES = 48;
+
   // Master smiles file containing all chemicals which have been saved to the service, along with
   // the id of the chemical they represent from the `rspace-web` database
   private File chemicalsMaster;
 
-  // Indexed version of `chemicalsMaster` in the OpenBabel FastSearch format for better performance
-  private File fastSearchChemicals;
-
-  // Smiles which have been added to `chemicalsMaster` since the last indexing of chemicals to the
-  // `fastSearchChemicals` file.
-  private File nonIndexedChemicals;
-
-  private final CommandExecutor commandExecutor;
+  private final SearchEngine searchEngine;
 
   private final ConvertService convertService;
 
   private final OpenBabelConvertor openBabelConvertor;
 
+  private final IndigoFacade indigoFacade;
+
+  private final ThumbnailPrerenderer thumbnailPrerenderer;
+
+  // whether smiles are re-canonicalized with OpenBabel, as earlier versions of the service did
+  private final boolean openBabelCanonicalization;
+
+  // converts the chemicals of a batch save in parallel
+  private final ExecutorService saveExecutor;
+
+  // bumped whenever the searchable chemicals change, so cached results from before then are never
+  // returned again, and age out of the cache instead
+  private final AtomicLong generation = new AtomicLong();
+
+  // bounded by the size of the pages, as pages without a limit hold every chemical found
+  private final LruCache<CachedSearch, SearchPage> resultCache;
+
+  // search terms converted to the smiles they're searched by, which don't depend on the generation
+  private final LruCache<SearchTerm, String> searchTermCache;
+
   @Autowired
   public SearchService(
-      CommandExecutor commandExecutor,
       ConvertService convertService,
-      OpenBabelConvertor openBabelConvertor) {
-    this.commandExecutor = commandExecutor;
+      OpenBabelConvertor openBabelConvertor,
+      IndigoFacade indigoFacade,
+      ThumbnailPrerenderer thumbnailPrerenderer,
+      ObjectProvider<SearchEngine> searchEngines,
+      @Value("${search.engine:indigo}") String engine,
+      @Value("${search.save.parallelism:0}") int saveParallelism,
+      @Value("${search.cache.size:1000}") int cacheSize,
+      @Value("${search.cache.bytes:16777216}") long cacheBytes,
+      @Value("${search.smiles.canonicalizer:indigo}") String canonicalizer) {
     this.convertService = convertService;
     this.openBabelConvertor = openBabelConvertor;
+    this.indigoFacade = indigoFacade;
+    this.thumbnailPrerenderer = thumbnailPrerenderer;
+    this.openBabelCanonicalization =
+        switch (canonicalizer) {
+          case "indigo" -> false;
+          case "openbabel" -> true;
+          default -> throw new ChemistryException("Unknown smiles canonicalizer: " + canonicalizer);
+        };
+    this.saveExecutor =
+        Executors.newFixedThreadPool(
+            saveParallelism > 0 ? saveParallelism : Runtime.getRuntime().availableProcessors());
+    this.resultCache = new LruCache<>(cacheBytes, SearchService::cachedWeight);
+    this.searchTermCache = new LruCache<>(cacheSize);
+    // only the engine selected by `search.engine` is created
+    this.searchEngine =
+        searchEngines.getIfAvailable(
+            () -> {
+              throw new ChemistryException("Unknown search engine: " + engine);
+            });
+    LOGGER.info("Using {} search engine.", engine);
   }
 
   @PostConstruct
@@ -71,149 +134,247 @@ public class SearchService {
     chemicalsMaster = new File(outputDir + "/chemicalsMaster." + CHEM_FILE_FORMAT);
     chemicalsMaster.createNewFile();
 
-    fastSearchChemicals = new File(outputDir + "/fastSearchChemicals.fs");
-    fastSearchChemicals.createNewFile();
-
-    nonIndexedChemicals = new File(outputDir + "/nonIndexedChemicals." + CHEM_FILE_FORMAT);
-    nonIndexedChemicals.createNewFile();
+    searchEngine.init(dataDir, chemicalsMaster);
   }
 
   public void clearFiles() throws IOException {
     LOGGER.info("clearing search indexes...");
 
     chemicalsMaster.delete();
-    fastSearchChemicals.delete();
-    nonIndexedChemicals.delete();
+    searchEngine.clear();
     initFiles();
+    generation.incrementAndGet();
+    resultCache.clear();
 
     LOGGER.info("... done");
   }
 
   /**
-   * Saves smiles string to both the `chemicalsMaster.smi`, and `nonIndexedChemicals.smi` files. The
-   * chemical master file holds all which have been saved in the format "{smiles} {id}" e.g. "CCC
-   * 123". The `fastSearchChemicals.fs` file is updated periodically from chemicalsMaster.smi. The
-   * `nonIndexed.smi` file keeps track of the difference between `fastSearchChemicals.fs` and
-   * `chemicalsMaster.smi` i.e. `nonIndexed.smi` holds any chemicals which have been saved since the
-   * last re-indexing of files from `chemicalsMaster.smi` to `fastSearchChemicals.fs`.
+   * Saves smiles string to the `chemicalsMaster.smi` file, which holds all chemicals which have
+   * been saved in the format "{smiles} {id}" e.g. "CCC 123", and then passes the chemical to the
+   * search engine so that it becomes searchable.
    */
   public void saveChemicals(SaveDTO saveDTO) throws IOException {
-    String smiles = getSmilesFromOpenBabel(saveDTO.chemical(), saveDTO.chemicalFormat());
-    FileWriter chemMasterFile = new FileWriter(chemicalsMaster, true);
-    FileWriter nonIndexedFile = new FileWriter(nonIndexedChemicals, true);
+    saveChemicals(List.of(saveDTO));
+  }
 
-    writeChem(chemMasterFile, smiles, saveDTO.chemicalId());
-    writeChem(nonIndexedFile, smiles, saveDTO.chemicalId());
+  /**
+   * Converts a batch of chemicals to smiles in parallel, then appends them all to
+   * `chemicalsMaster.smi` and the search engine with a single write. If any chemical can't be
+   * converted, none of the batch is saved. Once saved, the chemicals' thumbnails are queued to be
+   * pre-rendered in the background.
+   */
+  public void saveChemicals(List<SaveDTO> saveDTOs) throws IOException {
+    List<SearchableChemical> chemicals = convertForSaving(saveDTOs);
+    // saves are serialized so the search engine sees chemicals in the order they were written
+    synchronized (this) {
+      writeChems(chemicals);
+      searchEngine.addAll(chemicals);
+      generation.incrementAndGet();
+    }
+    saveDTOs.forEach(
+        saveDTO -> thumbnailPrerenderer.prerender(saveDTO.chemical(), saveDTO.chemicalFormat()));
   }
 
-  private void writeChem(FileWriter fileWriter, String smiles, String id) {
-    try (PrintWriter printWriter = new PrintWriter(fileWriter)) {
-      printWriter.println(smiles.strip() + " " + id);
-      printWriter.flush();
-    } catch (Exception e) {
-      String chemicalPreview = StringUtils.abbreviate(smiles, 50);
-      LOGGER.error("Error while saving chemical {}", chemicalPreview, e);
+  private List<SearchableChemical> convertForSaving(List<SaveDTO> saveDTOs) {
+    if (saveDTOs.size() == 1) {
+      return List.of(convertForSaving(saveDTOs.get(0)));
     }
+    return Batches.mapInParallel(saveDTOs, this::convertForSaving, saveExecutor);
   }
 
-  public List<String> searchNonIndexedFile(String searchTerm, SearchType searchType)
-      throws IOException, ExecutionException, InterruptedException, TimeoutException {
-    ProcessBuilder builder = new ProcessBuilder();
-    builder.command(
-        "obabel",
-        nonIndexedChemicals.getPath(),
-        "-o" + CHEM_FILE_FORMAT,
-        "-xt",
-        "-s" + searchTerm,
-        calculateSearchType(searchType));
-    LOGGER.info(
-        "Searching without index for {} in file: {}", searchTerm, nonIndexedChemicals.getPath());
-    LOGGER.info("output:");
-    return commandExecutor.executeCommand(builder);
-  }
-
-  public List<String> searchFastSearchFile(String searchTerm, SearchType searchType)
-      throws IOException, ExecutionException, InterruptedException, TimeoutException {
-    ProcessBuilder builder = new ProcessBuilder();
-    // -al 10000000 is a not-well documented switch which sets the limit of fast search candidates
-    // to 10m (default is 4000) to ensure all chemicals are searched
-    builder.command(
-        "obabel",
-        fastSearchChemicals.getPath(),
-        "-al 10000000",
-        "-osmi",
-        "-xt",
-        "-s" + searchTerm.strip(),
-        calculateSearchType(searchType));
-    LOGGER.info(
-        "Searching with index for {} in file: {}", searchTerm, fastSearchChemicals.getPath());
-    return commandExecutor.executeCommand(builder);
+  private SearchableChemical convertForSaving(SaveDTO saveDTO) {
+    String smiles = getCanonicalSmiles(saveDTO.chemical(), saveDTO.chemicalFormat());
+    return new SearchableChemical(smiles, saveDTO.chemicalId());
+  }
+
+  private void writeChems(List<SearchableChemical> chemicals) throws IOException {
+    try (PrintWriter printWriter =
+        new PrintWriter(new BufferedWriter(new FileWriter(chemicalsMaster, true)))) {
+      for (SearchableChemical chemical : chemicals) {
+        printWriter.println(chemical.smiles() + " " + chemical.chemicalId());
+      }
+      if (printWriter.checkError()) {
+        throw new IOException("Error while saving " + chemicals.size() + " chemicals");
+      }
+    }
   }
 
   /***
-   * Searches for a given chemical smile using OpenBabel.
-   * Search is performed against both the `fastSearchChemicals.fs` (indexed) and `nonIndexed.smi` (chems added since
-   * previous indexing) files.
+   * Searches for a given chemical using the configured search engine.
    * */
   public List<String> search(SearchDTO search)
       throws IOException, ExecutionException, InterruptedException, TimeoutException {
-    if (search.chemicalSearchTerm() != null && !search.chemicalSearchTerm().isEmpty()) {
-      String smiles =
-          getSmilesFromOpenBabel(search.chemicalSearchTerm(), search.searchTermFormat());
-      Set<String> hits = new HashSet<>();
-      hits.addAll(searchNonIndexedFile(smiles, search.searchType()));
-      hits.addAll(searchFastSearchFile(smiles, search.searchType()));
-      return hits.stream()
-          .map(input -> input.contains(" ") ? input.substring(input.lastIndexOf(" ") + 1) : input)
-          .collect(Collectors.toList());
+    return searchPage(search).chemicalIds();
+  }
+
+  /***
+   * Searches for a page of at most `limit` results, starting from the search's cursor. The search
+   * stops as soon as the page is full and one more hit has been found, so the last page never has
+   * a cursor. Chemicals saved more than once are only included once within a page, but may appear
+   * again on a later page. Pages are cached by the smiles searched for and the rest of
+   * the search, until the next time chemicals are saved, cleared or indexed.
+   */
+  public SearchPage searchPage(SearchDTO search)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    if (isEmpty(search)) {
+      return new SearchPage(List.of(), null);
+    }
+    String smiles = searchTermSmiles(search);
+    CachedSearch cachedSearch =
+        new CachedSearch(
+            smiles,
+            search.searchType(),
+            search.cursor(),
+            search.limit(),
+            search.similarityThreshold(),
+            search.topK(),
+            generation.get());
+    Optional<SearchPage> cached = resultCache.get(cachedSearch);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    SearchPage page = searchPage(search, smiles);
+    resultCache.put(cachedSearch, page);
+    return page;
+  }
+
+  // approximate heap bytes held by a cached page
+  static long cachedWeight(SearchPage page) {
+    long weight = CACHE_ENTRY_OVERHEAD_BYTES;
+    for (String chemicalId : page.chemicalIds()) {
+      weight += CACHED_ID_OVERHEAD_BYTES + 2L * chemicalId.length();
+    }
+    return weight;
+  }
+
+  private SearchPage searchPage(SearchDTO search, String smiles)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    List<String> ids = new ArrayList<>();
+    String nextCursor = null;
+    try (Stream<SearchHit> hits = searchHits(search, smiles)) {
+      Iterator<SearchHit> iterator = hits.iterator();
+      while (iterator.hasNext()) {
+        SearchHit hit = iterator.next();
+        ids.add(hit.chemicalId());
+        if (search.limit() != null && ids.size() == search.limit()) {
+          // only a page followed by another hit has a next page
+          nextCursor = iterator.hasNext() ? hit.cursor() : null;
+          break;
+        }
+      }
     }
-    return Collections.emptyList();
+    return new SearchPage(List.copyOf(ids), nextCursor);
   }
 
   /***
-   * Smiles notation for a given chemical can vary dependent on the parser. We want to ensure smiles are in the format
-   * generated by OpenBabel, while also maintaining maximum compatibility for conversion of incoming chem -> smiles.
-   * Therefore, input chemicals are first converted to smiles, then those smiles (which may have been generated by
-   * OpenBabel or Indigo) are "converted" using OpenBabel so they're in the format expected by OpenBabel for saving/
-   * searching.
-   * @return smiles string generated by OpenBabel, or the initial smiles if the OpenBabel conversion isn't successful
+   * @return hits which are found as the stream is consumed, with chemicals which have been saved
+   * more than once only included the first time they're found
    */
-  private String getSmilesFromOpenBabel(String originalChem, String originalFormat) {
-    String initialSmiles = convertService.convert(new ConvertDTO(originalChem, "smiles"));
-    return openBabelConvertor
-        .convert(new ConvertDTO(initialSmiles, "smiles", "smiles"))
-        .orElse(initialSmiles);
+  public Stream<SearchHit> searchHits(SearchDTO search)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    if (isEmpty(search)) {
+      return Stream.empty();
+    }
+    Stream<SearchHit> hits = searchHits(search, searchTermSmiles(search));
+    return search.limit() == null ? hits : hits.limit(search.limit());
   }
 
-  private String calculateSearchType(SearchType searchType) {
-    if (searchType == null) {
-      return "";
+  /***
+   * Chemicals saved more than once are filtered out after the first time they're found by this
+   * search. The cursor doesn't record which chemicals were found before it, so they may be found
+   * again when the search is resumed.
+   *
+   * @throws ChemistryException if a similarity search has a cursor, as its results are ranked
+   *     rather than resumable
+   */
+  private Stream<SearchHit> searchHits(SearchDTO search, String smiles)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    if (!search.isCursorSupported()) {
+      throw new ChemistryException("Similarity searches can't be resumed from a cursor");
     }
+    Stream<SearchHit> engineHits =
+        SearchType.SIMILARITY.equals(search.searchType())
+            ? searchEngine.similarityHits(
+                smiles,
+                Optional.ofNullable(search.similarityThreshold())
+                    .orElse(DEFAULT_SIMILARITY_THRESHOLD),
+                Optional.ofNullable(search.topK()).orElse(DEFAULT_TOP_K))
+            : searchEngine.searchHits(smiles, search.searchType(), search.cursor());
+    Set<String> found = new HashSet<>();
+    return engineHits.filter(hit -> found.add(hit.chemicalId()));
+  }
 
-    if (SearchType.EXACT.equals(searchType)) {
-      return "exact";
+  private static boolean isEmpty(SearchDTO search) {
+    return search.chemicalSearchTerm() == null || search.chemicalSearchTerm().isEmpty();
+  }
+
+  private String searchTermSmiles(SearchDTO search) {
+    SearchTerm searchTerm = new SearchTerm(search.chemicalSearchTerm(), search.searchTermFormat());
+    Optional<String> cached = searchTermCache.get(searchTerm);
+    if (cached.isPresent()) {
+      return cached.get();
     }
+    String smiles =
+        getCanonicalSmiles(search.chemicalSearchTerm(), search.searchTermFormat()).strip();
+    searchTermCache.put(searchTerm, smiles);
+    return smiles;
+  }
 
-    return "";
+  public SearchCacheStats cacheStats() {
+    return new SearchCacheStats(resultCache.stats(), searchTermCache.stats());
   }
 
+  private record SearchTerm(String term, String format) {}
+
+  private record CachedSearch(
+      String smiles,
+      SearchType searchType,
+      String cursor,
+      Integer limit,
+      Double similarityThreshold,
+      Integer topK,
+      long generation) {}
+
   /***
-   * Batch job to index chemicals using OpenBabel fast search format, and clear the contents of the nonIndexed.smi
-   * file once they've been indexed.
+   * Smiles notation for a given chemical can vary dependent on the parser, so saved chemicals and
+   * search terms are canonicalized the same way. By default, Indigo loads the chemical and writes
+   * its canonical smiles in a single pass. Chemicals Indigo can't load are converted to smiles by
+   * the {@link ConvertService} instead.
+   *
+   * With `search.smiles.canonicalizer=openbabel`, chemicals are converted to smiles and then
+   * "converted" again using OpenBabel, so they're in the format generated by OpenBabel, as
+   * chemicals saved by earlier versions of the service were.
+   *
+   * @return the canonical smiles, or the initial smiles if the OpenBabel conversion isn't
+   *     successful
+   */
+  private String getCanonicalSmiles(String originalChem, String originalFormat) {
+    if (!openBabelCanonicalization) {
+      Optional<String> canonical = indigoFacade.canonicalSmiles(originalChem, originalFormat);
+      if (canonical.isPresent()) {
+        return canonical.get();
+      }
+      return convertService.convert(new ConvertDTO(originalChem, "smiles"));
+    }
+    String initialSmiles = convertService.convert(new ConvertDTO(originalChem, "smiles"));
+    return openBabelConvertor
+        .convert(new ConvertDTO(initialSmiles, "smiles", "smiles"))
+        .orElse(initialSmiles);
+  }
+
+  /***
+   * Batch job to bring the search engine's indexes up to date with `chemicalsMaster.smi`.
    */
   @Scheduled(cron = "${search.index.cron}")
   public void indexChemicals()
       throws IOException, ExecutionException, InterruptedException, TimeoutException {
-    // update fast search file
-    ProcessBuilder builder = new ProcessBuilder();
-    builder.command("obabel", chemicalsMaster.getPath(), "-O", fastSearchChemicals.getPath(), "-u");
-    LOGGER.info(
-        "indexing chemicals from {} to {}",
-        chemicalsMaster.getPath(),
-        fastSearchChemicals.getPath());
-    commandExecutor.executeCommand(builder);
-
-    // clear the nonIndexChemicals file, entries from which have been indexed
-    new PrintWriter(nonIndexedChemicals).close();
+    searchEngine.index();
+    generation.incrementAndGet();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    saveExecutor.shutdownNow();
   }
 }
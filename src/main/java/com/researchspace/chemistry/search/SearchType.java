@@ -2,5 +2,6 @@ package com.researchspace.chemistry.search;
 
 public enum SearchType {
   SUBSTRUCTURE,
-  EXACT
+  EXACT,
+  SIMILARITY
 }
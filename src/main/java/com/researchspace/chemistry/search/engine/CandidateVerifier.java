@@ -0,0 +1,242 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.epam.indigo.Indigo;
+import com.epam.indigo.IndigoException;
+import com.epam.indigo.IndigoObject;
+import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.util.IndigoSession;
+import com.researchspace.chemistry.util.IndigoSessionPool;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/***
+ * Verifies the candidates which pass fingerprint screening atom-by-atom. Candidates are split into
+ * chunks which are verified on a work-stealing pool, so a broadly matching search uses every core.
+ *
+ * Indigo sessions aren't thread safe, so each verifying thread owns a session, which is freed when
+ * the thread ends. Verifying never waits for the {@link IndigoSessionPool} shared with conversions
+ * and rendering, which is only used to fingerprint the search term, and each thread loads the
+ * search term once per search rather than once per chunk. Candidates which share smiles, e.g. a
+ * chemical saved more than once, are loaded and matched once per wave.
+ */
+final class CandidateVerifier {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CandidateVerifier.class);
+
+  // small enough for work stealing to balance uneven match costs, large enough to amortize forking
+  static final int CHUNK_SIZE = 32;
+
+  private final IndigoSessionPool sessionPool;
+
+  private final ForkJoinPool pool;
+
+  /***
+   * @param parallelism number of verifying threads, or 0 for the number of available processors
+   */
+  CandidateVerifier(IndigoSessionPool sessionPool, int parallelism) {
+    this.sessionPool = sessionPool;
+    int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    // no threads are added beyond `threads` to compensate for joins, so there's never more than
+    // one session per thread
+    pool =
+        new ForkJoinPool(
+            threads,
+            VerifierThread::new,
+            null,
+            false,
+            0,
+            threads,
+            1,
+            forkJoinPool -> true,
+            60,
+            TimeUnit.SECONDS);
+  }
+
+  /***
+   * @return the fingerprint of the search term, used to screen candidates
+   * @throws ChemistryException if the search term can't be loaded
+   */
+  long[] queryFingerprint(String smiles) {
+    try (IndigoSession session = sessionPool.borrow()) {
+      return Fingerprints.of(query(session.indigo(), smiles), Fingerprints.SUBSTRUCTURE);
+    }
+  }
+
+  /***
+   * @return the similarity fingerprint of the search term
+   * @throws ChemistryException if the search term can't be loaded
+   */
+  long[] similarityFingerprint(String smiles) {
+    try (IndigoSession session = sessionPool.borrow()) {
+      return Fingerprints.of(searchTerm(session.indigo(), smiles), Fingerprints.SIMILARITY);
+    }
+  }
+
+  /***
+   * @return the canonical smiles of the search term, used to look up exact matches
+   * @throws ChemistryException if the search term can't be loaded
+   */
+  String canonicalSmiles(String smiles) {
+    try (IndigoSession session = sessionPool.borrow()) {
+      return searchTerm(session.indigo(), smiles).canonicalSmiles();
+    }
+  }
+
+  int parallelism() {
+    return pool.getParallelism();
+  }
+
+  /***
+   * @return the candidates which match the search term, in candidate order
+   */
+  List<Candidate> verify(String smiles, List<Candidate> candidates) {
+    List<String> structures = candidates.stream().map(Candidate::smiles).distinct().toList();
+    Set<String> matching = pool.invoke(new VerifyTask(smiles, structures));
+    return candidates.stream().filter(candidate -> matching.contains(candidate.smiles())).toList();
+  }
+
+  /***
+   * Stops the verifying threads, freeing their Indigo sessions.
+   */
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  // runs on a verifying thread, with that thread's session
+  private static Set<String> verifyChunk(String smiles, List<String> structures) {
+    VerifierThread thread = (VerifierThread) Thread.currentThread();
+    Indigo indigo = thread.indigo();
+    IndigoObject query = thread.query(smiles);
+    Set<String> matching = new HashSet<>();
+    for (String structure : structures) {
+      if (matches(indigo, query, structure)) {
+        matching.add(structure);
+      }
+    }
+    return matching;
+  }
+
+  /***
+   * @param ordinal position of the chemical among all saved chemicals, in the order they were saved
+   */
+  record Candidate(long ordinal, String chemicalId, String smiles) {}
+
+  private static final class VerifyTask extends RecursiveTask<Set<String>> {
+    private final String smiles;
+
+    private final List<String> structures;
+
+    private VerifyTask(String smiles, List<String> structures) {
+      this.smiles = smiles;
+      this.structures = structures;
+    }
+
+    @Override
+    protected Set<String> compute() {
+      if (structures.size() <= CHUNK_SIZE) {
+        return verifyChunk(smiles, structures);
+      }
+      int middle = structures.size() / 2;
+      VerifyTask second = new VerifyTask(smiles, structures.subList(middle, structures.size()));
+      second.fork();
+      Set<String> matching = new VerifyTask(smiles, structures.subList(0, middle)).compute();
+      matching.addAll(second.join());
+      return matching;
+    }
+  }
+
+  /***
+   * A verifying thread with an Indigo session of its own, created when it first verifies a chunk
+   * and freed when the thread ends.
+   */
+  private static final class VerifierThread extends ForkJoinWorkerThread {
+    private Indigo indigo;
+
+    // smiles of the search term last loaded by this thread
+    private String querySmiles;
+
+    private IndigoObject query;
+
+    private VerifierThread(ForkJoinPool pool) {
+      super(pool);
+    }
+
+    @Override
+    protected void onStart() {
+      super.onStart();
+      setName("search-verifier-" + getPoolIndex());
+    }
+
+    private Indigo indigo() {
+      if (indigo == null) {
+        indigo = new Indigo();
+        indigo.setOption("ignore-stereochemistry-errors", true);
+      }
+      return indigo;
+    }
+
+    // the search term is loaded by the first chunk of a search this thread verifies, and reused by
+    // the rest of its chunks
+    private IndigoObject query(String smiles) {
+      if (!smiles.equals(querySmiles)) {
+        query = CandidateVerifier.query(indigo(), smiles);
+        querySmiles = smiles;
+      }
+      return query;
+    }
+
+    @Override
+    protected void onTermination(Throwable exception) {
+      if (indigo != null) {
+        query = null;
+        querySmiles = null;
+        indigo.dispose();
+        indigo = null;
+      }
+      super.onTermination(exception);
+    }
+  }
+
+  private static IndigoObject query(Indigo indigo, String smiles) {
+    try {
+      IndigoObject query = indigo.loadQueryMolecule(smiles.strip());
+      query.aromatize();
+      return query;
+    } catch (IndigoException e) {
+      throw searchTermException(smiles, e);
+    }
+  }
+
+  private static IndigoObject searchTerm(Indigo indigo, String smiles) {
+    try {
+      IndigoObject molecule = indigo.loadMolecule(smiles.strip());
+      molecule.aromatize();
+      return molecule;
+    } catch (IndigoException e) {
+      throw searchTermException(smiles, e);
+    }
+  }
+
+  private static ChemistryException searchTermException(String smiles, IndigoException e) {
+    return new ChemistryException(
+        "Unable to load search term: " + StringUtils.abbreviate(smiles, 50), e);
+  }
+
+  private static boolean matches(Indigo indigo, IndigoObject query, String candidateSmiles) {
+    try {
+      IndigoObject molecule = indigo.loadMolecule(candidateSmiles);
+      molecule.aromatize();
+      return indigo.substructureMatcher(molecule).match(query) != null;
+    } catch (IndigoException e) {
+      LOGGER.warn("Unable to match chemical: {}", e.getMessage());
+      return false;
+    }
+  }
+}
@@ -0,0 +1,427 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/***
+ * Read-only binary index of chemical fingerprints, memory-mapped so that it is scanned off-heap and
+ * opening it costs the same regardless of how many chemicals it holds. The file layout is:
+ *
+ * header: magic number, format version, fingerprint widths in 64-bit words, length of
+ * `chemicalsMaster.smi` covered by the index, record heap length and chemical count
+ * substructure fingerprints: one fixed-width block of words per chemical
+ * similarity fingerprints: one fixed-width block of words per chemical
+ * similarity popcounts: the number of bits set in each similarity fingerprint, in ascending order
+ * similarity order: the position of the chemical with each of the sorted popcounts
+ * id table: offset of each chemical's record within the record heap
+ * hash table: open-addressed table from canonical smiles to chemical, used for exact searches
+ * record heap: the length prefixed, UTF-8 encoded id, smiles and canonical smiles of each chemical
+ */
+final class FingerprintIndex {
+  private static final int MAGIC = 0x52534649; // "RSFI"
+
+  // bumped whenever the layout changes, so that indexes written by older versions are rebuilt
+  private static final int FORMAT_VERSION = 3;
+
+  private static final int HEADER_BYTES = 36;
+
+  private final FingerprintWidths widths;
+
+  private final int size;
+
+  private final long indexedMasterLength;
+
+  private final ByteBuffer fingerprints;
+
+  private final ByteBuffer similarityFingerprints;
+
+  private final ByteBuffer similarityPopcounts;
+
+  private final ByteBuffer similarityOrder;
+
+  private final ByteBuffer idTable;
+
+  // each slot holds the position of a chemical plus one, or zero if the slot is empty
+  private final ByteBuffer hashTable;
+
+  private final ByteBuffer records;
+
+  private FingerprintIndex(
+      FingerprintWidths widths,
+      int size,
+      long indexedMasterLength,
+      ByteBuffer fingerprints,
+      ByteBuffer similarityFingerprints,
+      ByteBuffer similarityPopcounts,
+      ByteBuffer similarityOrder,
+      ByteBuffer idTable,
+      ByteBuffer hashTable,
+      ByteBuffer records) {
+    this.widths = widths;
+    this.size = size;
+    this.indexedMasterLength = indexedMasterLength;
+    this.fingerprints = fingerprints;
+    this.similarityFingerprints = similarityFingerprints;
+    this.similarityPopcounts = similarityPopcounts;
+    this.similarityOrder = similarityOrder;
+    this.idTable = idTable;
+    this.hashTable = hashTable;
+    this.records = records;
+  }
+
+  /***
+   * @return the index, or empty if the file doesn't exist or wasn't written by this version of the
+   * service with fingerprints of the expected width
+   */
+  static Optional<FingerprintIndex> open(Path file, FingerprintWidths widths) throws IOException {
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES) {
+        return Optional.empty();
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+      if (header.getInt() != MAGIC
+          || header.getInt() != FORMAT_VERSION
+          || header.getInt() != widths.substructure()
+          || header.getInt() != widths.similarity()) {
+        return Optional.empty();
+      }
+      long indexedMasterLength = header.getLong();
+      long recordsLength = header.getLong();
+      int size = header.getInt();
+
+      long fingerprintsStart = HEADER_BYTES;
+      long fingerprintsLength = (long) size * widths.substructure() * Long.BYTES;
+      long similarityStart = fingerprintsStart + fingerprintsLength;
+      long similarityLength = (long) size * widths.similarity() * Long.BYTES;
+      long popcountsStart = similarityStart + similarityLength;
+      long popcountsLength = (long) size * Integer.BYTES;
+      long orderStart = popcountsStart + popcountsLength;
+      long orderLength = (long) size * Integer.BYTES;
+      long idTableStart = orderStart + orderLength;
+      long idTableLength = (long) size * Integer.BYTES;
+      long hashTableStart = idTableStart + idTableLength;
+      long hashTableLength = (long) hashSlots(size) * Integer.BYTES;
+      long recordsStart = hashTableStart + hashTableLength;
+      if (channel.size() != recordsStart + recordsLength) {
+        return Optional.empty();
+      }
+      // mappings remain valid after the channel is closed
+      return Optional.of(
+          new FingerprintIndex(
+              widths,
+              size,
+              indexedMasterLength,
+              channel.map(FileChannel.MapMode.READ_ONLY, fingerprintsStart, fingerprintsLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, similarityStart, similarityLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, popcountsStart, popcountsLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, orderStart, orderLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, idTableStart, idTableLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, hashTableStart, hashTableLength),
+              channel.map(FileChannel.MapMode.READ_ONLY, recordsStart, recordsLength)));
+    }
+  }
+
+  /***
+   * Writes the chemicals to a new index file, replacing any existing index only once the new one is
+   * complete.
+   */
+  static void write(
+      Path file,
+      FingerprintWidths widths,
+      long indexedMasterLength,
+      List<IndexedChemical> chemicals)
+      throws IOException {
+    int size = chemicals.size();
+    if ((long) size * Math.max(widths.substructure(), widths.similarity()) * Long.BYTES
+        > Integer.MAX_VALUE) {
+      throw new ChemistryException("Too many chemicals for a single fingerprint index: " + size);
+    }
+    int[] recordLengths = new int[size];
+    long recordsLength = 0;
+    for (int i = 0; i < size; i++) {
+      IndexedChemical chemical = chemicals.get(i);
+      recordLengths[i] =
+          3 * Integer.BYTES
+              + utf8(chemical.chemicalId()).length
+              + utf8(chemical.smiles()).length
+              + utf8(chemical.canonicalSmiles()).length;
+      recordsLength += recordLengths[i];
+    }
+    if (recordsLength > Integer.MAX_VALUE) {
+      throw new ChemistryException("Too many chemicals for a single fingerprint index: " + size);
+    }
+
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(widths.substructure());
+      out.writeInt(widths.similarity());
+      out.writeLong(indexedMasterLength);
+      out.writeLong(recordsLength);
+      out.writeInt(size);
+
+      for (IndexedChemical chemical : chemicals) {
+        writeWords(out, chemical.fingerprint(), widths.substructure());
+      }
+      for (IndexedChemical chemical : chemicals) {
+        writeWords(out, chemical.similarityFingerprint(), widths.similarity());
+      }
+
+      int[] popcounts = new int[size];
+      for (int i = 0; i < size; i++) {
+        popcounts[i] = Fingerprints.popcount(chemicals.get(i).similarityFingerprint());
+      }
+      int[] order =
+          IntStream.range(0, size)
+              .boxed()
+              .sorted(Comparator.comparingInt(i -> popcounts[i]))
+              .mapToInt(Integer::intValue)
+              .toArray();
+      for (int chemical : order) {
+        out.writeInt(popcounts[chemical]);
+      }
+      for (int chemical : order) {
+        out.writeInt(chemical);
+      }
+
+      int offset = 0;
+      for (int recordLength : recordLengths) {
+        out.writeInt(offset);
+        offset += recordLength;
+      }
+
+      for (int slot : buildHashTable(chemicals)) {
+        out.writeInt(slot);
+      }
+
+      for (IndexedChemical chemical : chemicals) {
+        writeString(out, chemical.chemicalId());
+        writeString(out, chemical.smiles());
+        writeString(out, chemical.canonicalSmiles());
+      }
+    }
+    Files.move(
+        tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeWords(DataOutputStream out, long[] words, int width)
+      throws IOException {
+    for (int word = 0; word < width; word++) {
+      out.writeLong(word < words.length ? words[word] : 0);
+    }
+  }
+
+  // chemicals with the same canonical smiles are probed in the order they were saved
+  private static int[] buildHashTable(List<IndexedChemical> chemicals) {
+    int[] slots = new int[hashSlots(chemicals.size())];
+    for (int i = 0; i < chemicals.size(); i++) {
+      int slot = hashSlot(chemicals.get(i).canonicalSmiles(), slots.length);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & (slots.length - 1);
+      }
+      slots[slot] = i + 1;
+    }
+    return slots;
+  }
+
+  // a power of two at least twice the chemical count, keeping probe sequences short
+  private static int hashSlots(int size) {
+    return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+  }
+
+  private static int hashSlot(String canonicalSmiles, int slots) {
+    int hash = canonicalSmiles.hashCode() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & (slots - 1);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = utf8(value);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] utf8(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  int size() {
+    return size;
+  }
+
+  long indexedMasterLength() {
+    return indexedMasterLength;
+  }
+
+  /***
+   * @return true if every bit of the query fingerprint is set in the chemical's fingerprint
+   */
+  boolean containsFingerprint(int chemical, long[] query) {
+    int start = chemical * widths.substructure() * Long.BYTES;
+    for (int word = 0; word < query.length; word++) {
+      long candidate = fingerprints.getLong(start + word * Long.BYTES);
+      if ((candidate & query[word]) != query[word]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /***
+   * @return the positions of the chemicals with the given canonical smiles, in the order they were
+   * saved
+   */
+  List<Integer> findCanonical(String canonicalSmiles) {
+    List<Integer> found = new ArrayList<>();
+    int slots = hashTable.capacity() / Integer.BYTES;
+    int slot = hashSlot(canonicalSmiles, slots);
+    int entry;
+    while ((entry = hashTable.getInt(slot * Integer.BYTES)) != 0) {
+      if (canonicalSmiles(entry - 1).equals(canonicalSmiles)) {
+        found.add(entry - 1);
+      }
+      slot = (slot + 1) & (slots - 1);
+    }
+    return found;
+  }
+
+  long[] fingerprint(int chemical) {
+    int start = chemical * widths.substructure() * Long.BYTES;
+    long[] fingerprint = new long[widths.substructure()];
+    for (int word = 0; word < fingerprint.length; word++) {
+      fingerprint[word] = fingerprints.getLong(start + word * Long.BYTES);
+    }
+    return fingerprint;
+  }
+
+  long[] similarityFingerprint(int chemical) {
+    int start = chemical * widths.similarity() * Long.BYTES;
+    long[] fingerprint = new long[widths.similarity()];
+    for (int word = 0; word < fingerprint.length; word++) {
+      fingerprint[word] = similarityFingerprints.getLong(start + word * Long.BYTES);
+    }
+    return fingerprint;
+  }
+
+  /***
+   * Offers the chemicals which may be similar enough to the query to the top hits, in descending
+   * order of the upper bound on their similarity given by their popcounts. Once no remaining
+   * chemical's bound can reach the lowest similarity the top hits still accept, the rest are
+   * skipped without being compared.
+   * @param firstOrdinal ordinal of the first chemical in the index, used to break ties
+   */
+  void collectSimilar(long[] query, int queryPopcount, long firstOrdinal, TopSimilarHits hits) {
+    // walk outwards from the chemicals with the same popcount as the query
+    int up = firstPopcountAtLeast(queryPopcount);
+    int down = up - 1;
+    while (true) {
+      double upBound =
+          up < size ? Fingerprints.similarityBound(queryPopcount, popcountAt(up)) : -1;
+      double downBound =
+          down >= 0 ? Fingerprints.similarityBound(queryPopcount, popcountAt(down)) : -1;
+      if (Math.max(upBound, downBound) < hits.minimumSimilarity()) {
+        return;
+      }
+      int sorted = upBound >= downBound ? up++ : down--;
+      int chemical = similarityOrder.getInt(sorted * Integer.BYTES);
+      double similarity =
+          Fingerprints.tanimoto(
+              query, queryPopcount, similarityWords(chemical), popcountAt(sorted));
+      long ordinal = firstOrdinal + chemical;
+      if (hits.accepts(similarity, ordinal)) {
+        hits.offer(chemicalId(chemical), ordinal, similarity);
+      }
+    }
+  }
+
+  private int popcountAt(int sorted) {
+    return similarityPopcounts.getInt(sorted * Integer.BYTES);
+  }
+
+  private int firstPopcountAtLeast(int popcount) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (popcountAt(middle) < popcount) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // a view of the chemical's similarity fingerprint, avoiding a copy per comparison
+  private LongBuffer similarityWords(int chemical) {
+    int start = chemical * widths.similarity() * Long.BYTES;
+    return similarityFingerprints
+        .slice(start, widths.similarity() * Long.BYTES)
+        .asLongBuffer();
+  }
+
+  String chemicalId(int chemical) {
+    return readString(idTable.getInt(chemical * Integer.BYTES));
+  }
+
+  String smiles(int chemical) {
+    return readString(nextString(idTable.getInt(chemical * Integer.BYTES)));
+  }
+
+  String canonicalSmiles(int chemical) {
+    return readString(nextString(nextString(idTable.getInt(chemical * Integer.BYTES))));
+  }
+
+  private String readString(int offset) {
+    byte[] bytes = new byte[records.getInt(offset)];
+    records.get(offset + Integer.BYTES, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // offset of the string following the one at the given offset
+  private int nextString(int offset) {
+    return offset + Integer.BYTES + records.getInt(offset);
+  }
+
+  /***
+   * @return a view of the indexed chemicals which reads each chemical from the index on access
+   */
+  List<IndexedChemical> asList() {
+    return new AbstractList<>() {
+      @Override
+      public IndexedChemical get(int chemical) {
+        return new IndexedChemical(
+            chemicalId(chemical),
+            smiles(chemical),
+            canonicalSmiles(chemical),
+            fingerprint(chemical),
+            similarityFingerprint(chemical));
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -0,0 +1,6 @@
+package com.researchspace.chemistry.search.engine;
+
+/***
+ * Number of 64-bit words in each kind of fingerprint, which depends on the Indigo options in use.
+ */
+record FingerprintWidths(int substructure, int similarity) {}
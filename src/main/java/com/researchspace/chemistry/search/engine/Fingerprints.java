@@ -0,0 +1,76 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.epam.indigo.IndigoObject;
+import java.nio.LongBuffer;
+
+/***
+ * Fingerprints are held as arrays of 64-bit words so candidates can be screened a word at a time.
+ */
+final class Fingerprints {
+
+  // Indigo substructure fingerprint, valid for both molecules and query molecules
+  static final String SUBSTRUCTURE = "sub";
+
+  // Indigo similarity fingerprint, only valid for molecules
+  static final String SIMILARITY = "sim";
+
+  private Fingerprints() {}
+
+  static long[] of(IndigoObject structure, String type) {
+    return toWords(structure.fingerprint(type).toBuffer());
+  }
+
+  static long[] toWords(byte[] bytes) {
+    long[] words = new long[(bytes.length + Long.BYTES - 1) / Long.BYTES];
+    for (int i = 0; i < bytes.length; i++) {
+      words[i / Long.BYTES] |= (bytes[i] & 0xFFL) << (8 * (i % Long.BYTES));
+    }
+    return words;
+  }
+
+  /***
+   * @return true if every bit set in the query is also set in the candidate, which is necessary
+   * (but not sufficient) for the query to be a substructure of the candidate.
+   */
+  static boolean contains(long[] candidate, long[] query) {
+    for (int i = 0; i < query.length; i++) {
+      if ((candidate[i] & query[i]) != query[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int popcount(long[] words) {
+    int popcount = 0;
+    for (long word : words) {
+      popcount += Long.bitCount(word);
+    }
+    return popcount;
+  }
+
+  /***
+   * @return the Tanimoto coefficient of two fingerprints, given the number of bits set in each
+   */
+  static double tanimoto(long[] query, int queryPopcount, LongBuffer candidate, int popcount) {
+    if (queryPopcount == 0 && popcount == 0) {
+      return 0;
+    }
+    int common = 0;
+    for (int i = 0; i < query.length; i++) {
+      common += Long.bitCount(query[i] & candidate.get(i));
+    }
+    return (double) common / (queryPopcount + popcount - common);
+  }
+
+  /***
+   * @return the highest Tanimoto coefficient possible between fingerprints with the given numbers
+   * of bits set, which is reached when every bit of the sparser one is also set in the other
+   */
+  static double similarityBound(int queryPopcount, int popcount) {
+    if (queryPopcount == 0 && popcount == 0) {
+      return 0;
+    }
+    return (double) Math.min(queryPopcount, popcount) / Math.max(queryPopcount, popcount);
+  }
+}
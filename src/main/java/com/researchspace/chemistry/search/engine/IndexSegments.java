@@ -0,0 +1,333 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/***
+ * Log-structured set of immutable {@link FingerprintIndex} segment files. Newly saved chemicals are
+ * sealed into small segments, and runs of similarly sized segments are merged in the background, so
+ * the cost of indexing is proportional to the number of new chemicals rather than the size of the
+ * library.
+ *
+ * The `segments.manifest` file lists the live segments in the order their chemicals were saved,
+ * and is replaced atomically whenever segments are sealed or merged. Segment files which aren't
+ * listed in the manifest are left over from an interrupted seal or merge, and are deleted when
+ * opened.
+ */
+final class IndexSegments {
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexSegments.class);
+
+  static final String SEGMENTS_DIR = "segments";
+
+  private static final String MANIFEST_FILE_NAME = "segments.manifest";
+
+  private static final String SEGMENT_FILE_FORMAT = "segment-%012d.idx";
+
+  private final Path dir;
+
+  private final FingerprintWidths widths;
+
+  private final int segmentSize;
+
+  private final int mergeFactor;
+
+  private final Executor mergeExecutor;
+
+  // replaced rather than modified, so searches can iterate it without locking
+  private volatile List<Segment> segments;
+
+  private long nextSequence;
+
+  private boolean merging;
+
+  // bumped whenever the segments are cleared, so merges started before then are discarded
+  private long clears;
+
+  private IndexSegments(
+      Path dir,
+      FingerprintWidths widths,
+      int segmentSize,
+      int mergeFactor,
+      Executor mergeExecutor,
+      List<Segment> segments,
+      long nextSequence) {
+    this.dir = dir;
+    this.widths = widths;
+    this.segmentSize = segmentSize;
+    this.mergeFactor = mergeFactor;
+    this.mergeExecutor = mergeExecutor;
+    this.segments = segments;
+    this.nextSequence = nextSequence;
+  }
+
+  /***
+   * Opens the segments listed in the manifest of the `segments` directory. If any of them can't be
+   * opened, all segments are discarded so that they're rebuilt from `chemicalsMaster.smi`.
+   */
+  static IndexSegments open(
+      Path dataDir,
+      FingerprintWidths widths,
+      int segmentSize,
+      int mergeFactor,
+      Executor mergeExecutor)
+      throws IOException {
+    Path dir = dataDir.resolve(SEGMENTS_DIR);
+    Files.createDirectories(dir);
+    Path manifest = dir.resolve(MANIFEST_FILE_NAME);
+
+    List<Segment> segments = new ArrayList<>();
+    if (Files.exists(manifest)) {
+      for (String fileName : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+        Optional<FingerprintIndex> index =
+            FingerprintIndex.open(dir.resolve(fileName), widths);
+        if (index.isEmpty()) {
+          LOGGER.warn("Unable to open index segment {}, discarding all segments.", fileName);
+          segments.clear();
+          Files.delete(manifest);
+          break;
+        }
+        segments.add(new Segment(fileName, index.get()));
+      }
+    }
+
+    long nextSequence = 0;
+    List<String> live = segments.stream().map(Segment::fileName).toList();
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        String fileName = file.getFileName().toString();
+        if (fileName.startsWith("segment-")) {
+          nextSequence = Math.max(nextSequence, sequence(fileName) + 1);
+          if (!live.contains(fileName)) {
+            Files.delete(file);
+          }
+        }
+      }
+    }
+    IndexSegments indexSegments =
+        new IndexSegments(
+            dir,
+            widths,
+            segmentSize,
+            mergeFactor,
+            mergeExecutor,
+            Collections.unmodifiableList(segments),
+            nextSequence);
+    indexSegments.mergeIfNeeded();
+    return indexSegments;
+  }
+
+  private static long sequence(String fileName) {
+    try {
+      return Long.parseLong(fileName.replaceAll("\\D", ""));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  List<FingerprintIndex> snapshot() {
+    return segments.stream().map(Segment::index).toList();
+  }
+
+  int size() {
+    return segments.size();
+  }
+
+  /***
+   * @return the length of `chemicalsMaster.smi` covered by the segments
+   */
+  long indexedMasterLength() {
+    List<Segment> current = segments;
+    return current.isEmpty() ? 0 : current.get(current.size() - 1).index().indexedMasterLength();
+  }
+
+  /***
+   * Writes the chemicals to a new segment which covers `chemicalsMaster.smi` up to the given
+   * length.
+   */
+  synchronized void seal(List<IndexedChemical> chemicals, long indexedMasterLength)
+      throws IOException {
+    Segment segment = writeSegment(chemicals, indexedMasterLength);
+    List<Segment> updated = new ArrayList<>(segments);
+    updated.add(segment);
+    publish(updated);
+    LOGGER.info("Sealed {} chemicals into index segment {}", chemicals.size(), segment.fileName());
+    mergeIfNeeded();
+  }
+
+  private Segment writeSegment(List<IndexedChemical> chemicals, long indexedMasterLength)
+      throws IOException {
+    String fileName = String.format(SEGMENT_FILE_FORMAT, nextSequence++);
+    Path file = dir.resolve(fileName);
+    FingerprintIndex.write(file, widths, indexedMasterLength, chemicals);
+    FingerprintIndex index =
+        FingerprintIndex.open(file, widths)
+            .orElseThrow(() -> new ChemistryException("Unable to open index segment " + file));
+    return new Segment(fileName, index);
+  }
+
+  private void publish(List<Segment> updated) throws IOException {
+    Path manifest = dir.resolve(MANIFEST_FILE_NAME);
+    Path tempManifest = dir.resolve(MANIFEST_FILE_NAME + ".tmp");
+    Files.write(
+        tempManifest,
+        updated.stream().map(Segment::fileName).toList(),
+        StandardCharsets.UTF_8);
+    Files.move(
+        tempManifest,
+        manifest,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    segments = Collections.unmodifiableList(updated);
+  }
+
+  private synchronized void mergeIfNeeded() {
+    if (!merging && findMergeRun(segments).isPresent()) {
+      merging = true;
+      mergeExecutor.execute(this::merge);
+    }
+  }
+
+  /***
+   * Segments are grouped into tiers by size, where each tier holds segments `mergeFactor` times
+   * larger than the tier below. When the newest `mergeFactor` segments are all in the same tier
+   * they're merged into a single segment in the next tier, so each chemical is rewritten a
+   * logarithmic number of times.
+   */
+  private Optional<List<Segment>> findMergeRun(List<Segment> current) {
+    if (mergeFactor < 2 || current.size() < mergeFactor) {
+      return Optional.empty();
+    }
+    List<Segment> run = current.subList(current.size() - mergeFactor, current.size());
+    int tier = tier(run.get(0).index().size());
+    long mergedSize = 0;
+    for (Segment segment : run) {
+      if (tier(segment.index().size()) != tier) {
+        return Optional.empty();
+      }
+      mergedSize += segment.index().size();
+    }
+    if (mergedSize * Math.max(widths.substructure(), widths.similarity()) * Long.BYTES
+        > Integer.MAX_VALUE) {
+      return Optional.empty();
+    }
+    return Optional.of(List.copyOf(run));
+  }
+
+  private int tier(int size) {
+    int tier = 0;
+    long tierSize = (long) segmentSize * mergeFactor;
+    while (size >= tierSize) {
+      tier++;
+      tierSize *= mergeFactor;
+    }
+    return tier;
+  }
+
+  private void merge() {
+    try {
+      while (true) {
+        List<Segment> run;
+        long clearsAtStart;
+        synchronized (this) {
+          Optional<List<Segment>> next = findMergeRun(segments);
+          if (next.isEmpty()) {
+            merging = false;
+            return;
+          }
+          run = next.get();
+          clearsAtStart = clears;
+        }
+        mergeRun(run, clearsAtStart);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Error while merging index segments.", e);
+      synchronized (this) {
+        merging = false;
+      }
+    }
+  }
+
+  // the merged segment is written without holding the lock, so sealing isn't blocked by merges
+  private void mergeRun(List<Segment> run, long clearsAtStart) throws IOException {
+    List<List<IndexedChemical>> parts = run.stream().map(s -> s.index().asList()).toList();
+    long indexedMasterLength = run.get(run.size() - 1).index().indexedMasterLength();
+    String mergedFileName;
+    synchronized (this) {
+      mergedFileName = String.format(SEGMENT_FILE_FORMAT, nextSequence++);
+    }
+    Path mergedFile = dir.resolve(mergedFileName);
+    FingerprintIndex.write(mergedFile, widths, indexedMasterLength, concat(parts));
+
+    synchronized (this) {
+      if (clears != clearsAtStart) {
+        // the run's segments are gone, so the merged segment is never mapped or published
+        Files.deleteIfExists(mergedFile);
+        return;
+      }
+      FingerprintIndex mergedIndex =
+          FingerprintIndex.open(mergedFile, widths)
+              .orElseThrow(
+                  () -> new ChemistryException("Unable to open index segment " + mergedFile));
+      List<Segment> current = segments;
+      int start = current.indexOf(run.get(0));
+      List<Segment> updated = new ArrayList<>(current.subList(0, start));
+      updated.add(new Segment(mergedFileName, mergedIndex));
+      updated.addAll(current.subList(start + run.size(), current.size()));
+      publish(updated);
+    }
+    for (Segment segment : run) {
+      Files.deleteIfExists(dir.resolve(segment.fileName()));
+    }
+    LOGGER.info("Merged {} index segments into {}", run.size(), mergedFileName);
+  }
+
+  private static List<IndexedChemical> concat(List<List<IndexedChemical>> parts) {
+    int[] starts = new int[parts.size() + 1];
+    for (int i = 0; i < parts.size(); i++) {
+      starts[i + 1] = starts[i] + parts.get(i).size();
+    }
+    return new AbstractList<>() {
+      @Override
+      public IndexedChemical get(int index) {
+        int part = 0;
+        while (index >= starts[part + 1]) {
+          part++;
+        }
+        return parts.get(part).get(index - starts[part]);
+      }
+
+      @Override
+      public int size() {
+        return starts[parts.size()];
+      }
+    };
+  }
+
+  /***
+   * Deletes all segments, leaving an empty directory which new segments are sealed into and merged
+   * as before.
+   */
+  synchronized void clear() throws IOException {
+    clears++;
+    segments = Collections.emptyList();
+    FileUtils.deleteDirectory(dir.toFile());
+    Files.createDirectories(dir);
+  }
+
+  private record Segment(String fileName, FingerprintIndex index) {}
+}
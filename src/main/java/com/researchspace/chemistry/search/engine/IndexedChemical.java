@@ -0,0 +1,13 @@
+package com.researchspace.chemistry.search.engine;
+
+/***
+ * A saved chemical along with the substructure fingerprint used to screen it during substructure
+ * searches, the canonical smiles used to look it up during exact searches, and the similarity
+ * fingerprint compared during similarity searches.
+ */
+record IndexedChemical(
+    String chemicalId,
+    String smiles,
+    String canonicalSmiles,
+    long[] fingerprint,
+    long[] similarityFingerprint) {}
@@ -0,0 +1,466 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.epam.indigo.Indigo;
+import com.epam.indigo.IndigoException;
+import com.epam.indigo.IndigoObject;
+import com.researchspace.chemistry.search.SearchType;
+import com.researchspace.chemistry.search.engine.CandidateVerifier.Candidate;
+import com.researchspace.chemistry.util.IndigoSessionPool;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/***
+ * Search engine which screens saved chemicals by their substructure fingerprints, and verifies the
+ * remaining candidates atom-by-atom with Indigo's substructure matcher in parallel, using a
+ * {@link CandidateVerifier}, without starting any external processes. Exact searches are looked up
+ * by canonical smiles in hash tables, and don't need screening or verification. Similarity searches
+ * compare similarity fingerprints, pruned by their popcounts.
+ *
+ * Fingerprints are held in memory-mapped {@link IndexSegments}, so startup doesn't re-parse
+ * chemicals which have already been indexed. Newly saved chemicals are held in memory until there
+ * are `search.segment.size` of them, or until the next scheduled seal, at which point they're
+ * written to a new segment. Any chemicals which weren't sealed before a restart are replayed from
+ * `chemicalsMaster.smi` on startup.
+ */
+@ConditionalOnProperty(name = "search.engine", havingValue = "indigo", matchIfMissing = true)
+@Service
+public class IndigoSearchEngine implements SearchEngine {
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndigoSearchEngine.class);
+
+  // Indigo sessions aren't thread safe, so access to this one, which is used to fingerprint saved
+  // chemicals, is synchronized on the engine
+  private final Indigo indigo;
+
+  private final CandidateVerifier verifier;
+
+  private final FingerprintWidths fingerprintWidths;
+
+  private final int segmentSize;
+
+  private final int mergeFactor;
+
+  private final ExecutorService mergeExecutor;
+
+  private File chemicalsMaster;
+
+  private IndexSegments segments;
+
+  // chemicals saved since the last segment was sealed
+  private final List<IndexedChemical> nonIndexed = new ArrayList<>();
+
+  // positions of the non-indexed chemicals by canonical smiles, in the order they were saved
+  private final Map<String, List<Integer>> nonIndexedByCanonical = new HashMap<>();
+
+  // length of `chemicalsMaster.smi` covered by the segments and the non-indexed chemicals
+  private long masterLength;
+
+  @Autowired
+  public IndigoSearchEngine(
+      IndigoSessionPool sessionPool,
+      @Value("${search.segment.size:1000}") int segmentSize,
+      @Value("${search.segment.merge.factor:10}") int mergeFactor,
+      @Value("${search.verify.parallelism:0}") int verifyParallelism) {
+    this.segmentSize = segmentSize;
+    this.mergeFactor = mergeFactor;
+    verifier = new CandidateVerifier(sessionPool, verifyParallelism);
+    indigo = new Indigo();
+    indigo.setOption("ignore-stereochemistry-errors", true);
+    IndigoObject methane = indigo.loadMolecule("C");
+    fingerprintWidths =
+        new FingerprintWidths(
+            Fingerprints.of(methane, Fingerprints.SUBSTRUCTURE).length,
+            Fingerprints.of(methane, Fingerprints.SIMILARITY).length);
+    mergeExecutor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "index-segment-merger");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public synchronized void init(File dataDir, File chemicalsMaster) throws IOException {
+    this.chemicalsMaster = chemicalsMaster;
+    clearNonIndexed();
+
+    segments = openSegments(dataDir);
+    if (segments.indexedMasterLength() > chemicalsMaster.length()) {
+      LOGGER.warn("Index segments don't match {}, rebuilding.", chemicalsMaster.getPath());
+      segments.clear();
+      segments = openSegments(dataDir);
+    }
+    // chemicals which weren't sealed before the last shutdown are sealed as they're replayed
+    masterLength =
+        readMaster(
+            segments.indexedMasterLength(),
+            (chemical, lineEnd) -> {
+              addNonIndexed(chemical);
+              masterLength = lineEnd;
+              sealIfFull();
+            });
+    LOGGER.info(
+        "Opened {} index segments, with {} chemicals not yet indexed",
+        segments.size(),
+        nonIndexed.size());
+  }
+
+  private IndexSegments openSegments(File dataDir) throws IOException {
+    return IndexSegments.open(
+        dataDir.toPath(), fingerprintWidths, segmentSize, mergeFactor, mergeExecutor);
+  }
+
+  /***
+   * Reads the complete lines of `chemicalsMaster.smi` from the given offset, passing each chemical
+   * to the consumer along with the offset following its line.
+   * @return the offset following the last complete line
+   */
+  private long readMaster(long fromOffset, ObjLongConsumer<IndexedChemical> consumer)
+      throws IOException {
+    long offset = fromOffset;
+    try (FileChannel channel = FileChannel.open(chemicalsMaster.toPath(), StandardOpenOption.READ);
+        InputStream in =
+            new BufferedInputStream(Channels.newInputStream(channel.position(offset)))) {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int next;
+      while ((next = in.read()) != -1) {
+        if (next != '\n') {
+          line.write(next);
+          continue;
+        }
+        offset += line.size() + 1;
+        long lineEnd = offset;
+        parseMasterLine(line.toString(StandardCharsets.UTF_8))
+            .ifPresent(chemical -> consumer.accept(chemical, lineEnd));
+        line.reset();
+      }
+    }
+    return offset;
+  }
+
+  private Optional<IndexedChemical> parseMasterLine(String line) {
+    int separator = line.lastIndexOf(" ");
+    if (separator <= 0) {
+      return Optional.empty();
+    }
+    return toIndexedChemical(line.substring(0, separator), line.substring(separator + 1).strip());
+  }
+
+  private Optional<IndexedChemical> toIndexedChemical(String smiles, String chemicalId) {
+    try {
+      IndigoObject molecule = indigo.loadMolecule(smiles.strip());
+      molecule.aromatize();
+      return Optional.of(
+          new IndexedChemical(
+              chemicalId,
+              smiles.strip(),
+              molecule.canonicalSmiles(),
+              Fingerprints.of(molecule, Fingerprints.SUBSTRUCTURE),
+              Fingerprints.of(molecule, Fingerprints.SIMILARITY)));
+    } catch (IndigoException e) {
+      LOGGER.warn(
+          "Unable to load chemical {} for searching: {}",
+          StringUtils.abbreviate(smiles, 50),
+          e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public void add(String smiles, String chemicalId) {
+    addAll(List.of(new SearchableChemical(smiles, chemicalId)));
+  }
+
+  /***
+   * Expects the chemicals to have already been appended to `chemicalsMaster.smi`, with saves
+   * serialized by the caller.
+   */
+  @Override
+  public synchronized void addAll(List<SearchableChemical> chemicals) {
+    for (SearchableChemical chemical : chemicals) {
+      toIndexedChemical(chemical.smiles(), chemical.chemicalId()).ifPresent(this::addNonIndexed);
+    }
+    masterLength = chemicalsMaster.length();
+    sealIfFull();
+  }
+
+  private void addNonIndexed(IndexedChemical chemical) {
+    nonIndexedByCanonical
+        .computeIfAbsent(chemical.canonicalSmiles(), key -> new ArrayList<>())
+        .add(nonIndexed.size());
+    nonIndexed.add(chemical);
+  }
+
+  private void clearNonIndexed() {
+    nonIndexed.clear();
+    nonIndexedByCanonical.clear();
+  }
+
+  private void sealIfFull() {
+    if (nonIndexed.size() >= segmentSize) {
+      try {
+        seal();
+      } catch (IOException e) {
+        // chemicals stay searchable in memory, and are replayed from the master file on restart
+        LOGGER.error("Unable to seal index segment.", e);
+      }
+    }
+  }
+
+  private void seal() throws IOException {
+    if (segments == null || nonIndexed.isEmpty()) {
+      return;
+    }
+    segments.seal(List.copyOf(nonIndexed), masterLength);
+    clearNonIndexed();
+  }
+
+  /***
+   * Seals recently saved chemicals into a new segment, so they're searchable via the index within
+   * seconds of being saved.
+   */
+  @Scheduled(fixedDelayString = "${search.segment.seal.delay:5000}")
+  public synchronized void sealSegment() throws IOException {
+    seal();
+  }
+
+  /***
+   * Screening is cheap, so it runs on the calling thread, and only verification of the candidates
+   * which pass screening is spread across threads. Candidates are screened and verified in waves
+   * as the hits are consumed, starting small so the first hits are found quickly. Searches don't
+   * block saves, beyond taking a snapshot of the segments and the non-indexed chemicals.
+   *
+   * Cursors are the position of the chemical following a hit among all saved chemicals, which
+   * sealing and merging segments doesn't change.
+   */
+  @Override
+  public Stream<SearchHit> searchHits(String smiles, SearchType searchType, String cursor) {
+    long from = SearchHit.parseCursor(cursor);
+    if (SearchType.EXACT.equals(searchType)) {
+      return exactHits(smiles, from);
+    }
+    long[] queryFingerprint = verifier.queryFingerprint(smiles);
+    List<FingerprintIndex> snapshot;
+    List<IndexedChemical> recent;
+    synchronized (this) {
+      snapshot = segments.snapshot();
+      recent = List.copyOf(nonIndexed);
+    }
+    Iterator<SearchHit> hits =
+        new SubstructureHits(smiles, queryFingerprint, snapshot, recent, from);
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(hits, Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
+  /***
+   * Chemicals are exact matches if they have the same canonical smiles as the search term, so an
+   * exact search is a single hash lookup per segment.
+   */
+  private Stream<SearchHit> exactHits(String smiles, long from) {
+    String canonicalSmiles = verifier.canonicalSmiles(smiles);
+    List<FingerprintIndex> snapshot;
+    List<String> recentIds = new ArrayList<>();
+    List<Integer> recentPositions;
+    synchronized (this) {
+      snapshot = segments.snapshot();
+      recentPositions =
+          List.copyOf(nonIndexedByCanonical.getOrDefault(canonicalSmiles, List.of()));
+      recentPositions.forEach(position -> recentIds.add(nonIndexed.get(position).chemicalId()));
+    }
+    List<SearchHit> hits = new ArrayList<>();
+    long segmentStart = 0;
+    for (FingerprintIndex segment : snapshot) {
+      for (int chemical : segment.findCanonical(canonicalSmiles)) {
+        addExactHit(hits, segment.chemicalId(chemical), segmentStart + chemical, from);
+      }
+      segmentStart += segment.size();
+    }
+    for (int i = 0; i < recentPositions.size(); i++) {
+      addExactHit(hits, recentIds.get(i), segmentStart + recentPositions.get(i), from);
+    }
+    return hits.stream();
+  }
+
+  private static void addExactHit(
+      List<SearchHit> hits, String chemicalId, long ordinal, long from) {
+    if (ordinal >= from) {
+      hits.add(new SearchHit(chemicalId, Long.toString(ordinal + 1)));
+    }
+  }
+
+  /***
+   * Each segment is searched outwards from the chemicals whose similarity fingerprints have as many
+   * bits set as the search term's, skipping those whose popcount alone rules them out.
+   */
+  @Override
+  public Stream<SearchHit> similarityHits(String smiles, double threshold, int topK) {
+    long[] query = verifier.similarityFingerprint(smiles);
+    int queryPopcount = Fingerprints.popcount(query);
+    List<FingerprintIndex> snapshot;
+    List<IndexedChemical> recent;
+    synchronized (this) {
+      snapshot = segments.snapshot();
+      recent = List.copyOf(nonIndexed);
+    }
+    TopSimilarHits hits = new TopSimilarHits(threshold, topK);
+    long segmentStart = 0;
+    for (FingerprintIndex segment : snapshot) {
+      segment.collectSimilar(query, queryPopcount, segmentStart, hits);
+      segmentStart += segment.size();
+    }
+    for (int i = 0; i < recent.size(); i++) {
+      long[] fingerprint = recent.get(i).similarityFingerprint();
+      int popcount = Fingerprints.popcount(fingerprint);
+      double similarity =
+          Fingerprints.tanimoto(query, queryPopcount, LongBuffer.wrap(fingerprint), popcount);
+      hits.offer(recent.get(i).chemicalId(), segmentStart + i, similarity);
+    }
+    return hits.ranked().stream();
+  }
+
+  private final class SubstructureHits implements Iterator<SearchHit> {
+    private final String smiles;
+
+    private final long[] queryFingerprint;
+
+    private final List<FingerprintIndex> snapshot;
+
+    private final List<IndexedChemical> recent;
+
+    private final Deque<SearchHit> verified = new ArrayDeque<>();
+
+    private final int maxWaveSize;
+
+    private int waveSize = CandidateVerifier.CHUNK_SIZE;
+
+    // index into the snapshot, or the size of the snapshot once screening the recent chemicals
+    private int source;
+
+    private int position;
+
+    private long ordinal;
+
+    private SubstructureHits(
+        String smiles,
+        long[] queryFingerprint,
+        List<FingerprintIndex> snapshot,
+        List<IndexedChemical> recent,
+        long from) {
+      this.smiles = smiles;
+      this.queryFingerprint = queryFingerprint;
+      this.snapshot = snapshot;
+      this.recent = recent;
+      maxWaveSize = CandidateVerifier.CHUNK_SIZE * verifier.parallelism() * 8;
+      ordinal = from;
+      long skipped = from;
+      while (source < snapshot.size() && skipped >= snapshot.get(source).size()) {
+        skipped -= snapshot.get(source).size();
+        source++;
+      }
+      position = (int) Math.min(skipped, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (verified.isEmpty() && !screened()) {
+        verifyNextWave();
+      }
+      return !verified.isEmpty();
+    }
+
+    @Override
+    public SearchHit next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return verified.removeFirst();
+    }
+
+    private boolean screened() {
+      return source == snapshot.size() && position >= recent.size();
+    }
+
+    private void verifyNextWave() {
+      List<Candidate> candidates = new ArrayList<>();
+      while (candidates.size() < waveSize && !screened()) {
+        if (source < snapshot.size()) {
+          FingerprintIndex segment = snapshot.get(source);
+          if (position >= segment.size()) {
+            source++;
+            position = 0;
+            continue;
+          }
+          if (segment.containsFingerprint(position, queryFingerprint)) {
+            candidates.add(
+                new Candidate(ordinal, segment.chemicalId(position), segment.smiles(position)));
+          }
+        } else {
+          IndexedChemical chemical = recent.get(position);
+          if (Fingerprints.contains(chemical.fingerprint(), queryFingerprint)) {
+            candidates.add(new Candidate(ordinal, chemical.chemicalId(), chemical.smiles()));
+          }
+        }
+        position++;
+        ordinal++;
+      }
+      for (Candidate hit : verifier.verify(smiles, candidates)) {
+        verified.add(new SearchHit(hit.chemicalId(), Long.toString(hit.ordinal() + 1)));
+      }
+      waveSize = Math.min(waveSize * 2, maxWaveSize);
+    }
+  }
+
+  /***
+   * Seals any chemicals saved since the last segment was sealed. Segments are merged in the
+   * background, so the index is never rebuilt in full.
+   */
+  @Override
+  public synchronized void index() throws IOException {
+    seal();
+  }
+
+  @Override
+  public synchronized void clear() throws IOException {
+    clearNonIndexed();
+    segments.clear();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    verifier.shutdown();
+  }
+}
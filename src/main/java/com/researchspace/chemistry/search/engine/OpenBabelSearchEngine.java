@@ -0,0 +1,412 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.search.SearchType;
+import com.researchspace.chemistry.util.PrespawnedProcesses;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/***
+ * Search engine which runs an OpenBabel process per search against the OpenBabel FastSearch index
+ * of `chemicalsMaster.smi`, along with the chemicals saved since that index was last generated.
+ *
+ * Indexes are built in numbered generations in the `openbabel` directory. Generation N is built
+ * from a copy of `chemicalsMaster.smi` in the background, while chemicals saved in the meantime are
+ * appended to `nonIndexedChemicals-N.smi`. Once complete, the index is renamed into place and the
+ * set of files searched is swapped in a single step, so searches never see a partially written
+ * index and no saved chemical is ever missing from the files searched.
+ *
+ * An index from before indexes were generational is searched in place of generation 0, so
+ * upgrading doesn't leave searches without an index until the first generation is built.
+ */
+@ConditionalOnProperty(name = "search.engine", havingValue = "openbabel")
+@Service
+public class OpenBabelSearchEngine implements SearchEngine {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpenBabelSearchEngine.class);
+
+  private static final String CHEM_FILE_FORMAT = "smi";
+
+  static final String INDEX_DIR = "openbabel";
+
+  private static final String FAST_SEARCH_PREFIX = "fastSearchChemicals-";
+
+  private static final String INDEXED_PREFIX = "indexedChemicals-";
+
+  private static final String NON_INDEXED_PREFIX = "nonIndexedChemicals-";
+
+  private static final Pattern GENERATION_FILE =
+      Pattern.compile("(fastSearchChemicals|indexedChemicals|nonIndexedChemicals)-(\\d+)\\..+");
+
+  private final PrespawnedProcesses prespawnedProcesses;
+
+  // only one generation is built at a time
+  private final Object indexLock = new Object();
+
+  private File chemicalsMaster;
+
+  private File indexDir;
+
+  // replaced rather than modified, so each search sees a consistent set of files
+  private volatile Snapshot snapshot;
+
+  // generation of the newest published FastSearch index, or 0 if there isn't one yet
+  private long generation;
+
+  // `fastSearchChemicals.fs` and `nonIndexedChemicals.smi` from before indexes were generational,
+  // which are searched until the first generation is published, or null if there aren't any
+  private File legacyFastSearch;
+
+  private File legacyNonIndexed;
+
+  // smiles which have been added to `chemicalsMaster` since the generation being built, or the
+  // newest published generation, was started
+  private File nonIndexedChemicals;
+
+  private long nonIndexedNumber;
+
+  // length of `chemicalsMaster.smi` covering all chemicals passed to the engine
+  private long masterLength;
+
+  // time after which a search's obabel process is killed
+  private final long searchTimeoutMillis;
+
+  public OpenBabelSearchEngine(
+      PrespawnedProcesses prespawnedProcesses,
+      @Value("${openbabel.search.timeout:60000}") long searchTimeoutMillis) {
+    this.prespawnedProcesses = prespawnedProcesses;
+    this.searchTimeoutMillis = searchTimeoutMillis;
+  }
+
+  @Override
+  public synchronized void init(File dataDir, File chemicalsMaster) throws IOException {
+    this.chemicalsMaster = chemicalsMaster;
+    masterLength = chemicalsMaster.length();
+    indexDir = new File(dataDir, INDEX_DIR);
+    Files.createDirectories(indexDir.toPath());
+
+    generation = 0;
+    nonIndexedNumber = 0;
+    for (File file : listGenerationFiles()) {
+      long number = generationNumber(file);
+      if (file.getName().equals(generationFile(FAST_SEARCH_PREFIX, number).getName())
+          && generationFile(INDEXED_PREFIX, number).exists()) {
+        generation = Math.max(generation, number);
+      } else if (file.getName().startsWith(NON_INDEXED_PREFIX)) {
+        nonIndexedNumber = Math.max(nonIndexedNumber, number);
+      }
+    }
+    // files older than the newest generation, or left over from an interrupted build, are unused
+    long newest = generation;
+    deleteGenerationFiles(
+        file ->
+            generationNumber(file) < newest
+                || (!file.getName().startsWith(NON_INDEXED_PREFIX)
+                    && generationNumber(file) > newest));
+
+    nonIndexedNumber = Math.max(nonIndexedNumber, generation);
+    nonIndexedChemicals = generationFile(NON_INDEXED_PREFIX, nonIndexedNumber);
+    nonIndexedChemicals.createNewFile();
+    adoptLegacyIndex(dataDir);
+    snapshot = currentSnapshot();
+  }
+
+  /***
+   * The FastSearch index written by earlier versions of the service (`fastSearchChemicals.fs`,
+   * indexing `chemicalsMaster.smi` itself, which is only ever appended to) stays searchable, along
+   * with `nonIndexedChemicals.smi`, until the first generation is published. After that they're
+   * no longer needed, and are deleted.
+   */
+  private void adoptLegacyIndex(File dataDir) throws IOException {
+    File fastSearch = new File(dataDir, "fastSearchChemicals.fs");
+    File nonIndexed = new File(dataDir, "nonIndexedChemicals." + CHEM_FILE_FORMAT);
+    if (generation == 0 && fastSearch.length() > 0) {
+      LOGGER.info("Searching {} until the first index generation is built.", fastSearch.getPath());
+      legacyFastSearch = fastSearch;
+      legacyNonIndexed = nonIndexed;
+    } else {
+      legacyFastSearch = null;
+      legacyNonIndexed = null;
+      Files.deleteIfExists(fastSearch.toPath());
+      Files.deleteIfExists(nonIndexed.toPath());
+    }
+  }
+
+  private List<File> listGenerationFiles() {
+    File[] files = indexDir.listFiles((dir, name) -> GENERATION_FILE.matcher(name).matches());
+    return files == null ? List.of() : List.of(files);
+  }
+
+  private void deleteGenerationFiles(Predicate<File> predicate) throws IOException {
+    for (File file : listGenerationFiles()) {
+      if (predicate.test(file)) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+  }
+
+  private static long generationNumber(File file) {
+    Matcher matcher = GENERATION_FILE.matcher(file.getName());
+    return matcher.matches() ? Long.parseLong(matcher.group(2)) : 0;
+  }
+
+  private File generationFile(String prefix, long number) {
+    String extension = prefix.equals(FAST_SEARCH_PREFIX) ? "fs" : CHEM_FILE_FORMAT;
+    return new File(indexDir, prefix + number + "." + extension);
+  }
+
+  /***
+   * Until the first generation is published, the index from before indexes were generational is
+   * searched if there is one, and otherwise `chemicalsMaster.smi` itself is searched without an
+   * index. Afterwards, the newest generation is searched along with every non-indexed file started
+   * since it was.
+   */
+  private Snapshot currentSnapshot() {
+    List<File> nonIndexed = new ArrayList<>();
+    if (generation == 0) {
+      if (legacyFastSearch == null) {
+        return new Snapshot(null, List.of(chemicalsMaster));
+      }
+      if (legacyNonIndexed.exists()) {
+        nonIndexed.add(legacyNonIndexed);
+      }
+    }
+    for (long number = generation; number <= nonIndexedNumber; number++) {
+      File file = generationFile(NON_INDEXED_PREFIX, number);
+      if (file.exists()) {
+        nonIndexed.add(file);
+      }
+    }
+    return new Snapshot(
+        generation == 0 ? legacyFastSearch : generationFile(FAST_SEARCH_PREFIX, generation),
+        nonIndexed);
+  }
+
+  /**
+   * The `nonIndexedChemicals-N.smi` files keep track of the difference between the newest
+   * generation's `fastSearchChemicals-N.fs` and `chemicalsMaster.smi` i.e. they hold any chemicals
+   * which have been saved since that generation was started.
+   */
+  @Override
+  public void add(String smiles, String chemicalId) throws IOException {
+    addAll(List.of(new SearchableChemical(smiles, chemicalId)));
+  }
+
+  /***
+   * Appends the whole batch to the current non-indexed file with a single buffered write.
+   */
+  @Override
+  public synchronized void addAll(List<SearchableChemical> chemicals) throws IOException {
+    try (PrintWriter printWriter =
+        new PrintWriter(new BufferedWriter(new FileWriter(nonIndexedChemicals, true)))) {
+      for (SearchableChemical chemical : chemicals) {
+        printWriter.println(chemical.smiles().strip() + " " + chemical.chemicalId());
+      }
+      printWriter.flush();
+    } catch (Exception e) {
+      LOGGER.error("Error while saving {} chemicals", chemicals.size(), e);
+    }
+    masterLength = chemicalsMaster.length();
+  }
+
+  /***
+   * Search is performed against both the FastSearch index of the newest generation, and the
+   * non-indexed files holding chemicals added since that generation was started. Each file is only
+   * searched once the hits from the files before it have been consumed.
+   *
+   * Cursors are the number of distinct hits before the next one.
+   */
+  @Override
+  public Stream<SearchHit> searchHits(String smiles, SearchType searchType, String cursor) {
+    long from = SearchHit.parseCursor(cursor);
+    Snapshot current = snapshot;
+    List<File> files = new ArrayList<>(current.nonIndexed());
+    if (current.fastSearch() != null) {
+      files.add(current.fastSearch());
+    }
+    AtomicLong position = new AtomicLong(from);
+    // a chemical saved while a generation is being built can be in both its index and a
+    // non-indexed file
+    return files.stream()
+        .flatMap(file -> searchFile(file, current, smiles, searchType).stream())
+        .map(hit -> hit.contains(" ") ? hit.substring(hit.lastIndexOf(" ") + 1) : hit)
+        .distinct()
+        .skip(from)
+        .map(id -> new SearchHit(id, Long.toString(position.incrementAndGet())));
+  }
+
+  private List<String> searchFile(
+      File file, Snapshot current, String smiles, SearchType searchType) {
+    try {
+      return file.equals(current.fastSearch())
+          ? searchFastSearchFile(file, smiles, searchType)
+          : searchNonIndexedFile(file, smiles, searchType);
+    } catch (TimeoutException e) {
+      throw new ChemistryException(
+          "Timed out after " + searchTimeoutMillis + "ms searching " + file.getName(), e);
+    } catch (IOException | ExecutionException e) {
+      throw new ChemistryException("Problem while searching " + file.getName(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ChemistryException("Interrupted while searching " + file.getName(), e);
+    }
+  }
+
+  public List<String> searchNonIndexedFile(
+      File nonIndexed, String searchTerm, SearchType searchType)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    List<String> command =
+        List.of(
+            "obabel",
+            nonIndexed.getPath(),
+            "-o" + CHEM_FILE_FORMAT,
+            "-xt",
+            "-s" + searchTerm,
+            calculateSearchType(searchType));
+    LOGGER.info("Searching without index for {} in file: {}", searchTerm, nonIndexed.getPath());
+    return prespawnedProcesses.executeOnNewProcess(command, searchTimeoutMillis);
+  }
+
+  public List<String> searchFastSearchFile(
+      File fastSearch, String searchTerm, SearchType searchType)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    // -al 10000000 is a not-well documented switch which sets the limit of fast search candidates
+    // to 10m (default is 4000) to ensure all chemicals are searched
+    List<String> command =
+        List.of(
+            "obabel",
+            fastSearch.getPath(),
+            "-al 10000000",
+            "-osmi",
+            "-xt",
+            "-s" + searchTerm.strip(),
+            calculateSearchType(searchType));
+    LOGGER.info("Searching with index for {} in file: {}", searchTerm, fastSearch.getPath());
+    return prespawnedProcesses.executeOnNewProcess(command, searchTimeoutMillis);
+  }
+
+  private String calculateSearchType(SearchType searchType) {
+    if (searchType == null) {
+      return "";
+    }
+
+    if (SearchType.EXACT.equals(searchType)) {
+      return "exact";
+    }
+
+    return "";
+  }
+
+  /***
+   * Builds the next generation of the index without blocking saves or searches. Newly saved
+   * chemicals are switched to a new non-indexed file, and the chemicals saved before the switch are
+   * copied from `chemicalsMaster.smi` and indexed into a temporary file, which is then renamed into
+   * place and published. The files of the generation before the one replaced are then deleted,
+   * leaving the replaced generation for any searches which started before it was replaced.
+   */
+  @Override
+  public void index()
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    synchronized (indexLock) {
+      long next;
+      long indexedLength;
+      synchronized (this) {
+        next = nonIndexedNumber + 1;
+        indexedLength = masterLength;
+        nonIndexedNumber = next;
+        nonIndexedChemicals = generationFile(NON_INDEXED_PREFIX, next);
+        nonIndexedChemicals.createNewFile();
+        snapshot = currentSnapshot();
+      }
+
+      File indexedChemicals = generationFile(INDEXED_PREFIX, next);
+      copyMaster(indexedChemicals.toPath(), indexedLength);
+      File fastSearch = generationFile(FAST_SEARCH_PREFIX, next);
+      File tempFastSearch = new File(indexDir, fastSearch.getName() + ".tmp");
+      LOGGER.info(
+          "indexing chemicals from {} to {}", indexedChemicals.getPath(), fastSearch.getPath());
+      prespawnedProcesses.executeOnNewProcess(
+          List.of(
+              "obabel", indexedChemicals.getPath(), "-ofs", "-O", tempFastSearch.getPath(), "-u"),
+          0);
+      Files.move(
+          tempFastSearch.toPath(),
+          fastSearch.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      long replaced;
+      synchronized (this) {
+        replaced = generation;
+        generation = next;
+        snapshot = currentSnapshot();
+      }
+      LOGGER.info("Published search index generation {}", next);
+      deleteGenerationFiles(file -> generationNumber(file) < replaced);
+      if (replaced > 0) {
+        deleteLegacyIndex();
+      }
+    }
+  }
+
+  // left in place while it's the replaced generation, for any searches which started before then
+  private synchronized void deleteLegacyIndex() throws IOException {
+    if (legacyFastSearch != null) {
+      Files.deleteIfExists(legacyFastSearch.toPath());
+      Files.deleteIfExists(legacyNonIndexed.toPath());
+      legacyFastSearch = null;
+      legacyNonIndexed = null;
+    }
+  }
+
+  private void copyMaster(Path target, long length) throws IOException {
+    try (FileChannel in = FileChannel.open(chemicalsMaster.toPath(), StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                target,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+      long copied = 0;
+      while (copied < length) {
+        copied += in.transferTo(copied, length - copied, out);
+      }
+    }
+  }
+
+  @Override
+  public void clear() throws IOException {
+    synchronized (indexLock) {
+      synchronized (this) {
+        FileUtils.deleteDirectory(indexDir);
+        deleteLegacyIndex();
+        generation = 0;
+        snapshot = new Snapshot(null, List.of());
+      }
+    }
+  }
+
+  private record Snapshot(File fastSearch, List<File> nonIndexed) {}
+}
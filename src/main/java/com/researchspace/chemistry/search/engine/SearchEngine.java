@@ -0,0 +1,75 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.search.SearchType;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Performs chemical searches over the chemicals saved to the service. Saved chemicals are always
+ * written to `chemicalsMaster.smi` before being passed to the engine, so any state held by an
+ * engine can be rebuilt from that file.
+ */
+public interface SearchEngine {
+
+  /***
+   * Prepare the engine to search the chemicals already saved to the master file.
+   */
+  void init(File dataDir, File chemicalsMaster) throws IOException;
+
+  /***
+   * Make a newly saved chemical searchable.
+   */
+  void add(String smiles, String chemicalId) throws IOException;
+
+  /***
+   * Make a batch of newly saved chemicals searchable, in the order they were saved.
+   */
+  default void addAll(List<SearchableChemical> chemicals) throws IOException {
+    for (SearchableChemical chemical : chemicals) {
+      add(chemical.smiles(), chemical.chemicalId());
+    }
+  }
+
+  /***
+   * @return the ids of all chemicals matching the smiles search term
+   */
+  default List<String> search(String smiles, SearchType searchType)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    try (Stream<SearchHit> hits = searchHits(smiles, searchType, null)) {
+      return hits.map(SearchHit::chemicalId).distinct().toList();
+    }
+  }
+
+  /***
+   * Matches are found lazily as the stream is consumed, so a search stops as soon as the caller
+   * has all the hits it needs.
+   * @param cursor the cursor of the last hit already seen, or null to search from the start
+   * @return chemicals matching the smiles search term, in the order they were saved
+   */
+  Stream<SearchHit> searchHits(String smiles, SearchType searchType, String cursor)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException;
+
+  /***
+   * @param threshold minimum Tanimoto similarity of the chemicals found, between 0 and 1
+   * @return the `topK` chemicals most similar to the smiles search term, most similar first
+   */
+  default Stream<SearchHit> similarityHits(String smiles, double threshold, int topK)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    throw new ChemistryException("Similarity search isn't supported by this search engine.");
+  }
+
+  /***
+   * Bring any indexes held by the engine up to date with the master file.
+   */
+  void index() throws IOException, ExecutionException, InterruptedException, TimeoutException;
+
+  /***
+   * Remove all state held by the engine. {@link #init} is called afterwards.
+   */
+  void clear() throws IOException;
+}
@@ -0,0 +1,33 @@
+package com.researchspace.chemistry.search.engine;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.researchspace.chemistry.ChemistryException;
+import org.apache.commons.lang3.StringUtils;
+
+/***
+ * A chemical matching a search, along with the cursor from which the search can be resumed to
+ * find the matches which follow it. Similarity searches are ranked rather than resumable, so their
+ * hits have a similarity instead of a cursor.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SearchHit(String chemicalId, String cursor, Double similarity) {
+
+  public SearchHit(String chemicalId, String cursor) {
+    this(chemicalId, cursor, null);
+  }
+
+  /***
+   * @return the position a search resumes from, which is 0 for a search from the start
+   * @throws ChemistryException if the cursor isn't one returned by a search
+   */
+  static long parseCursor(String cursor) {
+    if (StringUtils.isBlank(cursor)) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(cursor.strip()));
+    } catch (NumberFormatException e) {
+      throw new ChemistryException("Invalid search cursor: " + StringUtils.abbreviate(cursor, 50));
+    }
+  }
+}
@@ -0,0 +1,6 @@
+package com.researchspace.chemistry.search.engine;
+
+/***
+ * A chemical which has been written to `chemicalsMaster.smi`, as passed to the search engine.
+ */
+public record SearchableChemical(String smiles, String chemicalId) {}
@@ -0,0 +1,68 @@
+package com.researchspace.chemistry.search.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/***
+ * Keeps the `topK` most similar chemicals offered during a similarity search, in a min-heap bounded
+ * to `topK` entries. Once the heap is full, the least similar hit it holds becomes the minimum
+ * similarity for the rest of the search, so fewer chemicals need comparing as the search goes on.
+ * Ties are broken in favour of the chemical saved first.
+ */
+final class TopSimilarHits {
+  private static final Comparator<Hit> LEAST_SIMILAR_FIRST =
+      Comparator.comparingDouble(Hit::similarity)
+          .thenComparing(Comparator.comparingLong(Hit::ordinal).reversed());
+
+  private final double threshold;
+
+  private final int topK;
+
+  private final PriorityQueue<Hit> heap;
+
+  TopSimilarHits(double threshold, int topK) {
+    this.threshold = threshold;
+    this.topK = topK;
+    heap = new PriorityQueue<>(Math.min(topK, 1024), LEAST_SIMILAR_FIRST);
+  }
+
+  double minimumSimilarity() {
+    return heap.size() < topK ? threshold : Math.max(threshold, heap.peek().similarity());
+  }
+
+  /***
+   * Checked before offering a hit, so the chemical's id is only read if it will be kept.
+   */
+  boolean accepts(double similarity, long ordinal) {
+    if (similarity < threshold) {
+      return false;
+    }
+    return heap.size() < topK
+        || LEAST_SIMILAR_FIRST.compare(new Hit(null, ordinal, similarity), heap.peek()) > 0;
+  }
+
+  void offer(String chemicalId, long ordinal, double similarity) {
+    if (!accepts(similarity, ordinal)) {
+      return;
+    }
+    if (heap.size() == topK) {
+      heap.poll();
+    }
+    heap.add(new Hit(chemicalId, ordinal, similarity));
+  }
+
+  /***
+   * @return the hits, most similar first
+   */
+  List<SearchHit> ranked() {
+    List<Hit> hits = new ArrayList<>(heap);
+    hits.sort(LEAST_SIMILAR_FIRST.reversed());
+    return hits.stream()
+        .map(hit -> new SearchHit(hit.chemicalId(), null, hit.similarity()))
+        .toList();
+  }
+
+  private record Hit(String chemicalId, long ordinal, double similarity) {}
+}
@@ -0,0 +1,38 @@
+package com.researchspace.chemistry.util;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/***
+ * Runs each item of a batch on an executor, collecting the results in the order of the batch.
+ */
+public final class Batches {
+
+  private Batches() {}
+
+  /***
+   * If any item throws, the items not yet started are cancelled, and the exception is rethrown as
+   * it was thrown rather than wrapped in a {@link CompletionException}.
+   *
+   * @return the result of each item, in the same order as the batch
+   */
+  public static <T, R> List<R> mapInParallel(
+      List<T> batch, Function<? super T, ? extends R> function, Executor executor) {
+    List<CompletableFuture<R>> results =
+        batch.stream()
+            .map(item -> CompletableFuture.<R>supplyAsync(() -> function.apply(item), executor))
+            .toList();
+    try {
+      return results.stream().map(CompletableFuture::join).toList();
+    } catch (CompletionException e) {
+      results.forEach(result -> result.cancel(false));
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
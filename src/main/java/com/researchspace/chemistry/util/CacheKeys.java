@@ -0,0 +1,40 @@
+package com.researchspace.chemistry.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/***
+ * Content-addressed cache keys: the sha256 of the parts of a request, each prefixed by its length
+ * so that no two different requests have the same hashed content. Null parts are hashed as empty.
+ */
+public final class CacheKeys {
+
+  private CacheKeys() {}
+
+  public static String of(String... parts) {
+    return DigestUtils.sha256Hex(prefixed(parts));
+  }
+
+  /***
+   * Key of a request for a chemical uploaded as raw bytes. The bytes are hashed directly, after a
+   * prefix which keys of text parts can't start with.
+   */
+  public static String of(byte[] input, String... parts) {
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    String prefix = "bytes;" + prefixed(parts) + input.length + ":";
+    digest.update(prefix.getBytes(StandardCharsets.UTF_8));
+    digest.update(input);
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private static String prefixed(String... parts) {
+    return Arrays.stream(parts)
+        .map(part -> part == null ? "" : part)
+        .map(part -> part.length() + ":" + part)
+        .collect(Collectors.joining());
+  }
+}
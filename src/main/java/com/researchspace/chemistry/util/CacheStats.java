@@ -0,0 +1,24 @@
+package com.researchspace.chemistry.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/***
+ * @param size number of entries in the cache
+ * @param weight total weight of the cached values
+ * @param maxWeight weight the cache is bounded to
+ * @param hits lookups which found a cached value
+ * @param misses lookups which didn't
+ * @param evictions entries removed to keep the cache within its bound
+ */
+public record CacheStats(
+    int size, long weight, long maxWeight, long hits, long misses, long evictions) {
+
+  /***
+   * @return fraction of lookups which found a cached value, or 0 if there haven't been any
+   */
+  @JsonProperty
+  public double hitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+}
@@ -0,0 +1,82 @@
+package com.researchspace.chemistry.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/***
+ * Reads a multi-record chemical file a few records at a time, so files of any size can be
+ * converted without holding them in memory.
+ */
+public final class ChemicalRecordReader implements Closeable {
+
+  public enum RecordFormat {
+    // records are terminated by a "$$$$" line
+    SDF,
+    // one record per line
+    SMILES;
+
+    public static Optional<RecordFormat> of(String format) {
+      return switch (format == null ? "" : format.strip().toLowerCase()) {
+        case "sdf", "sd", "mol" -> Optional.of(SDF);
+        case "smiles", "smi", "can" -> Optional.of(SMILES);
+        default -> Optional.empty();
+      };
+    }
+  }
+
+  private static final String SDF_TERMINATOR = "$$$$";
+
+  private final BufferedReader reader;
+
+  private final RecordFormat format;
+
+  public ChemicalRecordReader(InputStream input, RecordFormat format) {
+    this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    this.format = format;
+  }
+
+  public RecordFormat format() {
+    return format;
+  }
+
+  /***
+   * @return up to `maxRecords` records in the file's own format, or empty at the end of the file
+   */
+  public Optional<String> nextChunk(int maxRecords) throws IOException {
+    StringBuilder chunk = new StringBuilder();
+    int records = 0;
+    boolean inRecord = false;
+    String line;
+    while (records < maxRecords && (line = reader.readLine()) != null) {
+      if (format == RecordFormat.SMILES) {
+        if (!line.isBlank()) {
+          chunk.append(line).append('\n');
+          records++;
+        }
+        continue;
+      }
+      chunk.append(line).append('\n');
+      inRecord |= !line.isBlank();
+      if (line.strip().equals(SDF_TERMINATOR)) {
+        records++;
+        inRecord = false;
+      }
+    }
+    if (inRecord) {
+      // the last record of a file needn't be terminated
+      chunk.append(SDF_TERMINATOR).append('\n');
+      records++;
+    }
+    return records == 0 ? Optional.empty() : Optional.of(chunk.toString());
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -23,7 +24,9 @@ public class CommandExecutor {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CommandExecutor.class);
 
-  private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+  // each running command needs its own output reader, so commands run in parallel don't queue
+  // behind each other's output
+  private final ExecutorService executorService = Executors.newCachedThreadPool();
 
   public List<String> executeCommand(ProcessBuilder processBuilder)
       throws IOException, InterruptedException, ExecutionException, TimeoutException {
@@ -40,6 +43,64 @@ public class CommandExecutor {
     return output;
   }
 
+  /***
+   * Runs a command which reads its input from stdin and writes its output to stdout, so no files
+   * are needed to pass chemicals to or from it.
+   *
+   * @return the bytes written to stdout
+   */
+  public byte[] executeCommand(ProcessBuilder processBuilder, byte[] input)
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    LOGGER.info("Executing command: {}", processBuilder.command());
+    processBuilder.directory(null); // uses current working directory
+    processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
+    return pipe(processBuilder.start(), input, 30_000);
+  }
+
+  /***
+   * Writes the input to a process's stdin and reads its stdout until it's closed. Input is written
+   * while output is read, so a process which starts writing before reading all its input can't
+   * block on a full pipe. The process is killed if its output isn't complete within the timeout.
+   *
+   * Once stdout is closed, the process has written all of its output, so input it didn't read (e.g.
+   * because it rejected its arguments) is ignored.
+   *
+   * @return the bytes written to stdout
+   */
+  public byte[] pipe(Process process, byte[] input, long timeoutMillis)
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    Future<?> writer =
+        executorService.submit(
+            () -> {
+              try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(input);
+              }
+              return null;
+            });
+    Future<byte[]> reader = executorService.submit(() -> process.getInputStream().readAllBytes());
+    try {
+      return reader.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOGGER.warn("Command timed out after {}ms, killing it.", timeoutMillis);
+      process.destroyForcibly();
+      throw e;
+    } catch (InterruptedException e) {
+      // e.g. the command lost a race to another library, so its result is no longer needed
+      process.destroyForcibly();
+      throw e;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      throw e;
+    } finally {
+      writer.cancel(true);
+      reader.cancel(true);
+      // the process has written all of its output once stdout is closed
+      process.destroy();
+    }
+  }
+
   /***
    * Perform an action on each line of an input stream
    */
@@ -0,0 +1,225 @@
+package com.researchspace.chemistry.util;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/***
+ * Runs an operation with a primary library, falling back to another library if the primary one
+ * fails.
+ *
+ * By default the fallback only starts once the primary has failed. With `hedge.enabled`, the
+ * fallback is also started if the primary hasn't finished within the `hedge.percentile`
+ * percentile of its recent latencies, and whichever finishes first with a result wins. The loser
+ * is then cancelled by interrupting it, which kills any process it's waiting on. Indigo can't be
+ * interrupted, so a losing Indigo call still finishes before its session is returned.
+ *
+ * Hedged operations run on at most `hedge.threads` threads. Once they're all busy, e.g. because
+ * Indigo has stalled, operations aren't hedged: they run on the calling thread, with the fallback
+ * only started once the primary has failed, so a stall can't start an unbounded number of
+ * fallbacks.
+ */
+@Service
+public class HedgedExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(HedgedExecutor.class);
+
+  // latencies needed before the percentile is used rather than the default delay
+  private static final int MIN_SAMPLES = 20;
+
+  private final boolean enabled;
+
+  private final double percentile;
+
+  private final long minDelayMillis;
+
+  private final long defaultDelayMillis;
+
+  // recent latencies of each operation's primary library
+  private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+
+  // bounded, with no queue, so work is rejected rather than waiting once every thread is busy
+  private final ThreadPoolExecutor executorService;
+
+  public HedgedExecutor(
+      boolean enabled, double percentile, long minDelayMillis, long defaultDelayMillis) {
+    this(enabled, percentile, minDelayMillis, defaultDelayMillis, 0);
+  }
+
+  /***
+   * @param minDelayMillis the shortest time the primary is given before the fallback starts
+   * @param defaultDelayMillis the time the primary is given until enough of its latencies are
+   *     known
+   * @param threads maximum number of threads running hedged operations, or 0 for twice the number
+   *     of available processors
+   */
+  @Autowired
+  public HedgedExecutor(
+      @Value("${hedge.enabled:false}") boolean enabled,
+      @Value("${hedge.percentile:95}") double percentile,
+      @Value("${hedge.min.delay:50}") long minDelayMillis,
+      @Value("${hedge.default.delay:1000}") long defaultDelayMillis,
+      @Value("${hedge.threads:0}") int threads) {
+    this.enabled = enabled;
+    this.percentile = percentile;
+    this.minDelayMillis = minDelayMillis;
+    this.defaultDelayMillis = defaultDelayMillis;
+    this.executorService =
+        new ThreadPoolExecutor(
+            0,
+            threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors(),
+            60,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "hedged-execution");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /***
+   * @param operation name of the operation, whose latencies are tracked separately from others
+   * @return the first result found by either library, or empty if neither finds one
+   * @throws ChemistryException if interrupted while waiting for a result
+   */
+  public <T> Optional<T> execute(
+      String operation, Supplier<Optional<T>> primary, Supplier<Optional<T>> fallback) {
+    if (!enabled) {
+      return unhedged(primary, fallback);
+    }
+    Latencies primaryLatencies = latencies.computeIfAbsent(operation, key -> new Latencies());
+    ExecutorCompletionService<Optional<T>> completion =
+        new ExecutorCompletionService<>(executorService);
+    Future<Optional<T>> primaryResult;
+    try {
+      primaryResult =
+          completion.submit(
+              () -> {
+                long start = System.nanoTime();
+                try {
+                  return primary.get();
+                } finally {
+                  primaryLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("All hedging threads are busy, running {} without hedging.", operation);
+      return unhedged(primary, fallback);
+    }
+    Future<Optional<T>> fallbackResult = null;
+    try {
+      long delay = hedgeDelay(primaryLatencies);
+      if (completion.poll(delay, TimeUnit.MILLISECONDS) != null) {
+        Optional<T> result = resultOf(primaryResult);
+        return result.isPresent() ? result : fallback.get();
+      }
+      try {
+        fallbackResult = completion.submit(callable(fallback));
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn("All hedging threads are busy, not hedging {}.", operation);
+        Optional<T> result = resultOf(completion.take());
+        return result.isPresent() ? result : fallback.get();
+      }
+      LOGGER.info("{} took longer than {}ms, starting fallback in parallel.", operation, delay);
+      RuntimeException failure = null;
+      for (int finished = 0; finished < 2; finished++) {
+        try {
+          Future<Optional<T>> next = completion.take();
+          Optional<T> result = resultOf(next);
+          if (result.isPresent()) {
+            // the loser's result is no longer needed, so it stops as soon as it can
+            (next == primaryResult ? fallbackResult : primaryResult).cancel(true);
+            return result;
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      // e.g. the request was cancelled, which isn't a failure of either library
+      Thread.currentThread().interrupt();
+      throw new ChemistryException("Interrupted while waiting for " + operation, e);
+    } finally {
+      primaryResult.cancel(true);
+      if (fallbackResult != null) {
+        fallbackResult.cancel(true);
+      }
+    }
+  }
+
+  private static <T> Optional<T> unhedged(
+      Supplier<Optional<T>> primary, Supplier<Optional<T>> fallback) {
+    Optional<T> result = primary.get();
+    return result.isPresent() ? result : fallback.get();
+  }
+
+  private long hedgeDelay(Latencies primaryLatencies) {
+    return primaryLatencies
+        .percentile(percentile)
+        .map(latency -> Math.max(minDelayMillis, latency))
+        .orElse(defaultDelayMillis);
+  }
+
+  private static <T> Callable<Optional<T>> callable(Supplier<Optional<T>> supplier) {
+    return supplier::get;
+  }
+
+  private static <T> Optional<T> resultOf(Future<Optional<T>> future)
+      throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /***
+   * The most recent latencies of an operation, in a ring buffer.
+   */
+  private static final class Latencies {
+    private final long[] millis = new long[256];
+
+    private int next;
+
+    private int size;
+
+    private synchronized void add(long latency) {
+      millis[next] = latency;
+      next = (next + 1) % millis.length;
+      size = Math.min(size + 1, millis.length);
+    }
+
+    private synchronized Optional<Long> percentile(double percentile) {
+      if (size < MIN_SAMPLES) {
+        return Optional.empty();
+      }
+      long[] sorted = Arrays.copyOf(millis, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * size) - 1;
+      return Optional.of(sorted[Math.max(0, Math.min(index, size - 1))]);
+    }
+  }
+}
@@ -5,6 +5,9 @@ import com.epam.indigo.IndigoException;
 import com.epam.indigo.IndigoObject;
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.convert.ConvertDTO;
+import com.researchspace.chemistry.util.ChemicalRecordReader.RecordFormat;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Optional;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -15,67 +18,234 @@ import org.springframework.stereotype.Service;
 public class IndigoFacade {
   private static final Logger logger = LoggerFactory.getLogger(IndigoFacade.class);
 
+  // records converted with each borrowed session, so the session's memory is bounded by the chunk
+  private static final int RECORDS_PER_CHUNK = 100;
+
+  private final IndigoSessionPool sessionPool;
+
+  public IndigoFacade(IndigoSessionPool sessionPool) {
+    this.sessionPool = sessionPool;
+  }
+
+  /***
+   * @return a pooled Indigo session, which must be closed once objects loaded in it are finished
+   * with
+   */
+  public IndigoSession session() {
+    return sessionPool.borrow();
+  }
+
   public Optional<String> convert(ConvertDTO convertDTO) {
     logger.info("Attempting conversion using Indigo.");
-    Indigo indigo = new Indigo();
-    indigo.setOption("ignore-stereochemistry-errors", true);
+    try (IndigoSession session = session()) {
+      IndigoObject indigoObject =
+          load(session.indigo(), convertDTO.input(), convertDTO.inputFormat());
+      return write(indigoObject, convertDTO.outputFormat());
+    } catch (ChemistryException | IndigoException e) {
+      logger.warn("Unable to convert with Indigo. {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
 
-    IndigoObject indigoObject;
-    try {
-      indigoObject = load(indigo, convertDTO.input());
-      String converted =
-          switch (convertDTO.outputFormat()) {
-            case "cdx" -> indigoObject.b64cdx();
-            case "cdxml" -> indigoObject.cdxml();
-            case "smiles", "smi" -> indigoObject.smiles();
-            case "ket" -> indigoObject.json();
-            case "mol" -> indigoObject.molfile();
-            default -> "";
-          };
-      if (converted.isEmpty()) {
-        return Optional.empty();
-      }
-      return Optional.of(converted);
+  /***
+   * Converts a chemical uploaded as raw bytes, e.g. a binary cdx file.
+   */
+  public Optional<String> convert(byte[] input, String inputFormat, String outputFormat) {
+    logger.info("Attempting conversion of {} bytes using Indigo.", input.length);
+    try (IndigoSession session = session()) {
+      return write(load(session.indigo(), input, inputFormat), outputFormat);
     } catch (ChemistryException | IndigoException e) {
       logger.warn("Unable to convert with Indigo. {}", e.getMessage());
       return Optional.empty();
     }
   }
 
-  /* input can be loaded as molecule or reaction but there doesn't seem to be a way to check
-  which type it is either before attempting to load*/
+  private Optional<String> write(IndigoObject indigoObject, String outputFormat) {
+    String converted =
+        switch (outputFormat) {
+          case "cdx" -> indigoObject.b64cdx();
+          case "cdxml" -> indigoObject.cdxml();
+          case "smiles", "smi" -> indigoObject.smiles();
+          case "ket" -> indigoObject.json();
+          case "mol" -> indigoObject.molfile();
+          default -> "";
+        };
+    if (converted.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(converted);
+  }
+
+  /***
+   * Loads a chemical and writes its canonical smiles in a single pass, so the same chemical always
+   * produces the same smiles whatever format it was saved or searched in. Queries can't be
+   * canonicalized, so their plain smiles are used instead. Any extended (cxsmiles) section is
+   * dropped, as chemicals are stored as "{smiles} {id}" lines.
+   *
+   * @return the smiles, or empty if Indigo can't load the chemical
+   */
+  public Optional<String> canonicalSmiles(String input, String inputFormat) {
+    try (IndigoSession session = session()) {
+      IndigoObject chemical = load(session.indigo(), input, inputFormat);
+      String smiles;
+      try {
+        smiles = chemical.canonicalSmiles();
+      } catch (IndigoException e) {
+        smiles = chemical.smiles();
+      }
+      String[] parts = smiles.strip().split("\\s+", 2);
+      return parts[0].isEmpty() ? Optional.empty() : Optional.of(parts[0]);
+    } catch (ChemistryException | IndigoException e) {
+      logger.warn("Unable to canonicalize with Indigo. {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /***
+   * Converts a multi-record file record by record with Indigo's record iterators, a chunk of
+   * records at a time, writing each chunk as soon as it's converted, so the file is never held in
+   * memory. Records which can't be converted are skipped.
+   *
+   * Each chunk is converted into a buffer, and only written once its session has been returned to
+   * the pool, so a slow client can't hold a session while its output is written.
+   *
+   * @return the number of records which couldn't be converted
+   */
+  public int convertRecords(ChemicalRecordReader reader, RecordFormat outputFormat, Writer output)
+      throws IOException {
+    int failed = 0;
+    int recordNumber = 0;
+    Optional<String> chunk;
+    while ((chunk = reader.nextChunk(RECORDS_PER_CHUNK)).isPresent()) {
+      StringBuilder converted = new StringBuilder();
+      try (IndigoSession session = session()) {
+        Indigo indigo = session.indigo();
+        IndigoObject file = indigo.loadString(chunk.get());
+        IndigoObject records =
+            reader.format() == RecordFormat.SDF
+                ? indigo.iterateSDF(file)
+                : indigo.iterateSmiles(file);
+        for (IndigoObject record : records) {
+          recordNumber++;
+          try {
+            converted.append(convertRecord(record, outputFormat));
+          } catch (IndigoException e) {
+            failed++;
+            logger.warn("Unable to convert record {}: {}", recordNumber, e.getMessage());
+          }
+        }
+      }
+      output.append(converted);
+      output.flush();
+    }
+    return failed;
+  }
+
+  private String convertRecord(IndigoObject record, RecordFormat outputFormat) {
+    return switch (outputFormat) {
+      case SDF -> record.molfile() + "$$$$\n";
+      case SMILES -> {
+        String name = record.name();
+        yield record.smiles() + (StringUtils.isBlank(name) ? "" : " " + name.strip()) + "\n";
+      }
+    };
+  }
+
   public IndigoObject load(Indigo indigo, String input) {
+    return load(indigo, input, null);
+  }
+
+  public IndigoObject load(Indigo indigo, String input, String inputFormat) {
     if (input == null || input.isEmpty()) {
       throw new ChemistryException("Input is empty");
     }
+    StructureLoader loader =
+        kind ->
+            switch (kind) {
+              case MOLECULE -> indigo.loadMolecule(input);
+              case REACTION -> indigo.loadReaction(input);
+              case QUERY_MOLECULE -> indigo.loadQueryMolecule(input);
+              case QUERY_REACTION -> indigo.loadQueryReaction(input);
+            };
+    return load(loader, StructureSniffer.sniff(input, inputFormat), input);
+  }
+
+  /***
+   * Loads a chemical from its raw bytes, e.g. an uploaded binary cdx file, without copying it into
+   * a string.
+   */
+  public IndigoObject load(Indigo indigo, byte[] input, String inputFormat) {
+    if (input == null || input.length == 0) {
+      throw new ChemistryException("Input is empty");
+    }
+    StructureLoader loader =
+        kind ->
+            switch (kind) {
+              case MOLECULE -> indigo.loadMolecule(input);
+              case REACTION -> indigo.loadReaction(input);
+              case QUERY_MOLECULE -> indigo.loadQueryMolecule(input);
+              case QUERY_REACTION -> indigo.loadQueryReaction(input);
+            };
+    return load(loader, StructureSniffer.sniff(input, inputFormat), input.length + " bytes");
+  }
+
+  /* input can be loaded as molecule or reaction, and Indigo has no way to check which it is
+  before attempting to load. Each failed attempt is an exception thrown from native code, so the
+  input is loaded as whatever its format and content suggest it is first, and only loaded as
+  everything else if that fails*/
+  private IndigoObject load(StructureLoader loader, StructureSniffer.Kind kind, String preview) {
+    try {
+      return loader.load(kind);
+    } catch (IndigoException e) {
+      logger.debug("Input isn't a {}, trying other structure types.", kind);
+    }
     IndigoObject indigoObject;
     try {
-      indigoObject = loadNormalStructure(indigo, input);
+      indigoObject = loadNormalStructure(loader, kind);
     } catch (IndigoException e) {
       try {
-        indigoObject = loadQueryStructure(indigo, input);
+        indigoObject = loadQueryStructure(loader, kind);
       } catch (IndigoException ex) {
         throw new ChemistryException(
-            "Can't load input as molecule or reaction. Input: " + StringUtils.abbreviate(input, 50),
+            "Can't load input as molecule or reaction. Input: "
+                + StringUtils.abbreviate(preview, 50),
             ex);
       }
     }
     return indigoObject;
   }
 
-  private IndigoObject loadQueryStructure(Indigo indigo, String input) {
+  // the kind which has already been tried is skipped
+  private IndigoObject loadQueryStructure(StructureLoader loader, StructureSniffer.Kind tried) {
+    if (tried == StructureSniffer.Kind.QUERY_MOLECULE) {
+      return loader.load(StructureSniffer.Kind.QUERY_REACTION);
+    }
     try {
-      return indigo.loadQueryMolecule(input);
+      return loader.load(StructureSniffer.Kind.QUERY_MOLECULE);
     } catch (IndigoException e) {
-      return indigo.loadQueryReaction(input);
+      if (tried == StructureSniffer.Kind.QUERY_REACTION) {
+        throw e;
+      }
+      return loader.load(StructureSniffer.Kind.QUERY_REACTION);
     }
   }
 
-  private IndigoObject loadNormalStructure(Indigo indigo, String input) {
+  private IndigoObject loadNormalStructure(StructureLoader loader, StructureSniffer.Kind tried) {
+    if (tried == StructureSniffer.Kind.MOLECULE) {
+      return loader.load(StructureSniffer.Kind.REACTION);
+    }
     try {
-      return indigo.loadMolecule(input);
+      return loader.load(StructureSniffer.Kind.MOLECULE);
     } catch (IndigoException e) {
-      return indigo.loadReaction(input);
+      if (tried == StructureSniffer.Kind.REACTION) {
+        throw e;
+      }
+      return loader.load(StructureSniffer.Kind.REACTION);
     }
   }
+
+  // loads the input as the given kind of structure
+  private interface StructureLoader {
+    IndigoObject load(StructureSniffer.Kind kind);
+  }
 }
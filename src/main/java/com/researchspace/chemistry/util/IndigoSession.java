@@ -0,0 +1,89 @@
+package com.researchspace.chemistry.util;
+
+import com.epam.indigo.Indigo;
+import com.epam.indigo.IndigoRenderer;
+
+/***
+ * An Indigo session borrowed from the {@link IndigoSessionPool}, which is returned to the pool when
+ * closed. Objects loaded in the session mustn't be used once it has been returned.
+ */
+public final class IndigoSession implements AutoCloseable {
+
+  private final IndigoSessionPool pool;
+
+  private final Indigo indigo;
+
+  private IndigoRenderer renderer;
+
+  private int uses;
+
+  private boolean borrowed;
+
+  private boolean disposed;
+
+  IndigoSession(IndigoSessionPool pool) {
+    this.pool = pool;
+    this.indigo = new Indigo();
+    configure();
+  }
+
+  public Indigo indigo() {
+    return indigo;
+  }
+
+  /***
+   * @return the session's renderer, which is created the first time it's needed
+   */
+  public IndigoRenderer renderer() {
+    if (renderer == null) {
+      renderer = new IndigoRenderer(indigo);
+    }
+    return renderer;
+  }
+
+  @Override
+  public void close() {
+    if (borrowed) {
+      borrowed = false;
+      pool.release(this);
+    }
+  }
+
+  void borrow() {
+    borrowed = true;
+    uses++;
+  }
+
+  int uses() {
+    return uses;
+  }
+
+  /***
+   * Clears any options set while the session was borrowed, so the next borrower starts from the
+   * same defaults.
+   */
+  void reset() {
+    indigo.resetOptions();
+    configure();
+  }
+
+  /***
+   * Frees the native session, and the renderer's with it, rather than leaving them for the garbage
+   * collector. The session can't be used afterwards.
+   */
+  void dispose() {
+    if (!disposed) {
+      disposed = true;
+      renderer = null;
+      indigo.dispose();
+    }
+  }
+
+  boolean isDisposed() {
+    return disposed;
+  }
+
+  private void configure() {
+    indigo.setOption("ignore-stereochemistry-errors", true);
+  }
+}
@@ -0,0 +1,105 @@
+package com.researchspace.chemistry.util;
+
+import com.epam.indigo.IndigoException;
+import com.researchspace.chemistry.ChemistryException;
+import jakarta.annotation.PreDestroy;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/***
+ * A bounded pool of Indigo sessions, so requests reuse sessions rather than each setting up a new
+ * native session and leaving it for the garbage collector to free.
+ *
+ * Borrowers wait for a session once `indigo.pool.size` of them are in use. Returned sessions have
+ * their options reset, and are retired once they've been used `indigo.pool.max.uses` times. Retired
+ * sessions are freed straight away, so native memory held by objects loaded in them is released
+ * rather than waiting for the garbage collector.
+ */
+@Service
+public class IndigoSessionPool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndigoSessionPool.class);
+
+  // most recently returned first, so the fewest sessions are kept in use
+  private final Deque<IndigoSession> idle = new ConcurrentLinkedDeque<>();
+
+  private final Semaphore available;
+
+  private final int maxUses;
+
+  private final long borrowTimeoutMillis;
+
+  /***
+   * @param size maximum number of sessions, or 0 for the number of available processors
+   * @param borrowTimeoutMillis how long to wait for a session before giving up
+   */
+  public IndigoSessionPool(
+      @Value("${indigo.pool.size:0}") int size,
+      @Value("${indigo.pool.max.uses:1000}") int maxUses,
+      @Value("${indigo.pool.borrow.timeout:30000}") long borrowTimeoutMillis) {
+    this.available = new Semaphore(size > 0 ? size : Runtime.getRuntime().availableProcessors());
+    this.maxUses = maxUses;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+  }
+
+  /***
+   * @return a session, which must be closed to return it to the pool
+   * @throws ChemistryException if no session becomes available in time
+   */
+  public IndigoSession borrow() {
+    try {
+      if (!available.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new ChemistryException("Timed out waiting for an Indigo session");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ChemistryException("Interrupted while waiting for an Indigo session", e);
+    }
+    boolean borrowed = false;
+    try {
+      IndigoSession session = idle.pollFirst();
+      if (session == null) {
+        session = new IndigoSession(this);
+      }
+      session.borrow();
+      borrowed = true;
+      return session;
+    } finally {
+      if (!borrowed) {
+        available.release();
+      }
+    }
+  }
+
+  void release(IndigoSession session) {
+    try {
+      if (session.uses() < maxUses) {
+        session.reset();
+        idle.offerFirst(session);
+      } else {
+        session.dispose();
+      }
+    } catch (IndigoException e) {
+      LOGGER.warn("Discarding Indigo session which couldn't be reset: {}", e.getMessage());
+      session.dispose();
+    } finally {
+      available.release();
+    }
+  }
+
+  /***
+   * Frees the idle sessions. Sessions still borrowed are left to their borrowers.
+   */
+  @PreDestroy
+  public void shutdown() {
+    IndigoSession session;
+    while ((session = idle.pollFirst()) != null) {
+      session.dispose();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.researchspace.chemistry.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+
+/***
+ * A thread safe least-recently-used cache, bounded by the total weight of its values. Entries are
+ * evicted, least recently used first, until the cache is back within its bound. Hits, misses and
+ * evictions are counted so the cache's effectiveness can be reported.
+ *
+ * A maximum weight of 0 disables the cache: nothing is stored and every lookup is a miss.
+ */
+public final class LruCache<K, V> {
+
+  private final long maxWeight;
+
+  private final ToLongFunction<V> weigher;
+
+  // access ordered, so iteration starts from the least recently used entry
+  private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long weight;
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  /***
+   * @param weigher weight of a value, e.g. its size in bytes
+   */
+  public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /***
+   * Cache bounded by its number of entries.
+   */
+  public LruCache(long maxEntries) {
+    this(maxEntries, value -> 1);
+  }
+
+  public synchronized Optional<V> get(K key) {
+    V value = entries.get(key);
+    if (value == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return Optional.ofNullable(value);
+  }
+
+  /***
+   * Values heavier than the whole cache aren't stored.
+   */
+  public synchronized void put(K key, V value) {
+    long valueWeight = weigher.applyAsLong(value);
+    if (valueWeight > maxWeight) {
+      return;
+    }
+    V replaced = entries.put(key, value);
+    if (replaced != null) {
+      weight -= weigher.applyAsLong(replaced);
+    }
+    weight += valueWeight;
+    Iterator<Map.Entry<K, V>> leastRecentlyUsed = entries.entrySet().iterator();
+    while (weight > maxWeight) {
+      weight -= weigher.applyAsLong(leastRecentlyUsed.next().getValue());
+      leastRecentlyUsed.remove();
+      evictions++;
+    }
+  }
+
+  /***
+   * @return the cached value, without counting a hit or miss. A value found is still marked as
+   *     used, so it's kept for as long as it keeps being read.
+   */
+  public synchronized Optional<V> peek(K key) {
+    return Optional.ofNullable(entries.get(key));
+  }
+
+  /***
+   * @return whether the key is cached, without counting a hit or miss or marking it as used
+   */
+  public synchronized boolean containsKey(K key) {
+    return entries.containsKey(key);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+
+  public synchronized CacheStats stats() {
+    return new CacheStats(entries.size(), weight, maxWeight, hits, misses, evictions);
+  }
+}
@@ -0,0 +1,239 @@
+package com.researchspace.chemistry.util;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/***
+ * Runs all of the service's `obabel` commands. Commands which read their input from stdin are run
+ * on processes which were spawned before they were needed, so jobs don't wait for `obabel` to
+ * launch and load its plugins.
+ *
+ * OpenBabel has no request/response mode, so a process can't be kept running between jobs: each
+ * pre-spawned process runs a single job, and every job still costs a process. Pre-spawning only
+ * takes the cost of starting it off the job's critical path. A pre-spawned process is started with
+ * the job's command line and then blocks reading stdin until a job's input is written and stdin
+ * closed, and its output is read until stdout closes.
+ *
+ * Processes are only pre-spawned for command lines which have been run before, so command lines
+ * which are only run once (e.g. those holding a search term) don't leave unused processes behind.
+ * Whenever such a command is run, a replacement process for the same command line is spawned in
+ * the background. Up to `openbabel.prespawn.spares` are kept for each of the
+ * `openbabel.prespawn.commands` most recently used command lines.
+ *
+ * A pre-spawned process is only used if it's still running and hasn't written anything, as a
+ * process waiting for its input has nothing to write yet. Others are discarded when taken, and
+ * periodically replaced. Jobs which don't finish within `openbabel.prespawn.timeout` milliseconds
+ * have their process killed.
+ */
+@Service
+public class PrespawnedProcesses {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PrespawnedProcesses.class);
+
+  private final CommandExecutor commandExecutor;
+
+  private final int sparesPerCommand;
+
+  private final long timeoutMillis;
+
+  // pre-spawned processes by command line, least recently used command line first. A command line
+  // with no processes has been run before, so the next time it's run a process is spawned for it
+  private final LinkedHashMap<List<String>, Deque<Process>> spares;
+
+  // spawns processes in the background
+  private final ExecutorService executorService =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "openbabel-prespawn");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  public PrespawnedProcesses(
+      CommandExecutor commandExecutor,
+      @Value("${openbabel.prespawn.spares:2}") int sparesPerCommand,
+      @Value("${openbabel.prespawn.commands:16}") int maxCommands,
+      @Value("${openbabel.prespawn.timeout:30000}") long timeoutMillis) {
+    this.commandExecutor = commandExecutor;
+    this.sparesPerCommand = sparesPerCommand;
+    this.timeoutMillis = timeoutMillis;
+    this.spares =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<List<String>, Deque<Process>> eldest) {
+            if (size() > maxCommands) {
+              eldest.getValue().forEach(Process::destroy);
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /***
+   * Runs a command, writing the input to its stdin.
+   *
+   * @return the lines written to stdout
+   */
+  public List<String> execute(List<String> command, byte[] input)
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    return lines(executeForBytes(command, input));
+  }
+
+  /***
+   * Runs a command, writing the input to its stdin.
+   *
+   * @return the bytes written to stdout, e.g. a PNG image
+   */
+  public byte[] executeForBytes(List<String> command, byte[] input)
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    LOGGER.info("Executing command on pre-spawned OpenBabel process: {}", command);
+    Process spare = takeSpare(command);
+    if (recordUse(command)) {
+      spawnSpareInBackground(command);
+    }
+    if (spare != null) {
+      try {
+        return commandExecutor.pipe(spare, input, timeoutMillis);
+      } catch (IOException e) {
+        // the process failed between being checked and used, so run the job on a new process
+        LOGGER.warn("Pre-spawned OpenBabel process failed, replacing it: {}", e.getMessage());
+      }
+    }
+    return commandExecutor.pipe(start(command), input, timeoutMillis);
+  }
+
+  /***
+   * Runs a command which reads its input from the files named in its arguments, e.g. a search of
+   * an index. Such commands are never pre-spawned, as the process would read its files before the
+   * job was run, so they're always run on a new process.
+   *
+   * @param timeoutMillis time after which the process is killed, or 0 to wait until it finishes
+   * @return the lines written to stdout
+   */
+  public List<String> executeOnNewProcess(List<String> command, long timeoutMillis)
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    LOGGER.info("Executing command: {}", command);
+    long timeout = timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE;
+    return lines(commandExecutor.pipe(start(command), new byte[0], timeout));
+  }
+
+  private static List<String> lines(byte[] output) {
+    List<String> lines = new String(output, StandardCharsets.UTF_8).lines().toList();
+    LOGGER.info("Found output: {}", StringUtils.abbreviate(String.join(", ", lines), 500));
+    return lines;
+  }
+
+  private Process start(List<String> command) throws IOException {
+    return new ProcessBuilder(command)
+        .directory(null) // uses current working directory
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+  }
+
+  private synchronized Process takeSpare(List<String> command) {
+    Deque<Process> processes = spares.get(command);
+    while (processes != null && !processes.isEmpty()) {
+      Process process = processes.pollFirst();
+      if (isWaitingForInput(process)) {
+        return process;
+      }
+      process.destroy();
+    }
+    return null;
+  }
+
+  /***
+   * @return whether the command line had been run before
+   */
+  private synchronized boolean recordUse(List<String> command) {
+    return spares.putIfAbsent(command, new ArrayDeque<>()) != null;
+  }
+
+  private static boolean isWaitingForInput(Process process) {
+    try {
+      return process.isAlive() && process.getInputStream().available() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void spawnSpareInBackground(List<String> command) {
+    if (sparesPerCommand > 0) {
+      executorService.execute(() -> spawnSpare(command));
+    }
+  }
+
+  private void spawnSpare(List<String> command) {
+    synchronized (this) {
+      Deque<Process> processes = spares.get(command);
+      if (processes == null || processes.size() >= sparesPerCommand) {
+        return;
+      }
+    }
+    try {
+      Process process = start(command);
+      synchronized (this) {
+        Deque<Process> processes = spares.get(command);
+        // the command line may have been evicted while the process started
+        if (processes == null || processes.size() >= sparesPerCommand) {
+          process.destroy();
+        } else {
+          processes.addLast(process);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to spawn OpenBabel process: {}", e.getMessage());
+    }
+  }
+
+  /***
+   * Discards pre-spawned processes which have exited or written output without being given any
+   * input, and spawns replacements for them.
+   */
+  @Scheduled(fixedDelayString = "${openbabel.prespawn.check.delay:60000}")
+  public void checkSpares() {
+    List<List<String>> replace = new ArrayList<>();
+    synchronized (this) {
+      for (Map.Entry<List<String>, Deque<Process>> entry : spares.entrySet()) {
+        Iterator<Process> processes = entry.getValue().iterator();
+        while (processes.hasNext()) {
+          Process process = processes.next();
+          if (!isWaitingForInput(process)) {
+            process.destroy();
+            processes.remove();
+            replace.add(entry.getKey());
+          }
+        }
+      }
+    }
+    if (!replace.isEmpty()) {
+      LOGGER.warn("Replacing {} pre-spawned OpenBabel processes which failed.", replace.size());
+      replace.forEach(this::spawnSpareInBackground);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    spares.values().forEach(processes -> processes.forEach(Process::destroy));
+    spares.clear();
+    executorService.shutdownNow();
+  }
+}
@@ -0,0 +1,111 @@
+package com.researchspace.chemistry.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/***
+ * Guesses how Indigo should load a chemical from its format and leading content, so it can be
+ * loaded with the right method first rather than failing through each of them in turn. A guess
+ * is only a hint: {@link IndigoFacade#load} still tries every method if the guessed one fails.
+ */
+final class StructureSniffer {
+
+  enum Kind {
+    MOLECULE,
+    REACTION,
+    QUERY_MOLECULE,
+    QUERY_REACTION
+  }
+
+  private static final Set<String> REACTION_FORMATS = Set.of("rxn", "rdf", "rsmi", "rxnsmi");
+
+  private static final Set<String> QUERY_FORMATS = Set.of("sma", "smarts");
+
+  // base64 of the magic "VjCD0100" which starts every cdx file
+  private static final String BASE64_CDX_MAGIC = "VmpDRDAxMDA";
+
+  private static final byte[] CDX_MAGIC = "VjCD0100".getBytes(StandardCharsets.US_ASCII);
+
+  // only the start of a chemical uploaded as bytes is decoded to sniff it, as it is only a hint
+  private static final int SNIFFED_BYTES = 64 * 1024;
+
+  // the CDX tag of a reaction step object, as its little-endian bytes
+  private static final byte[] CDX_REACTION_STEP = {0x0E, (byte) 0x80};
+
+  private static final Pattern KET_ARROW = Pattern.compile("\"type\"\\s*:\\s*\"arrow\"");
+
+  // features of smarts which aren't valid smiles
+  private static final Pattern SMARTS_FEATURES = Pattern.compile("~|\\$\\(|\\[[^]]*[;&,!][^]]*]");
+
+  private StructureSniffer() {}
+
+  static Kind sniff(String input, String inputFormat) {
+    String format = inputFormat == null ? "" : inputFormat.strip().toLowerCase();
+    String content = input.stripLeading();
+    boolean singleLine = content.indexOf('\n') < 0;
+    if (QUERY_FORMATS.contains(format)) {
+      return singleLine && content.contains(">") ? Kind.QUERY_REACTION : Kind.QUERY_MOLECULE;
+    }
+    if (REACTION_FORMATS.contains(format)
+        || content.startsWith("$RXN")
+        || content.startsWith("$RDFILE")) {
+      return Kind.REACTION;
+    }
+    if (content.startsWith("<")) {
+      // cdxml reactions are described by a scheme of steps
+      return content.contains("<step") ? Kind.REACTION : Kind.MOLECULE;
+    }
+    if (content.startsWith("{")) {
+      // ket reactions have an arrow between their reactants and products
+      return KET_ARROW.matcher(content).find() ? Kind.REACTION : Kind.MOLECULE;
+    }
+    if (content.startsWith(BASE64_CDX_MAGIC)) {
+      return isCdxReaction(content) ? Kind.REACTION : Kind.MOLECULE;
+    }
+    if (singleLine) {
+      boolean query = SMARTS_FEATURES.matcher(content).find();
+      if (content.contains(">")) {
+        return query ? Kind.QUERY_REACTION : Kind.REACTION;
+      }
+      return query ? Kind.QUERY_MOLECULE : Kind.MOLECULE;
+    }
+    // molfiles, and anything else which doesn't look like a reaction
+    return Kind.MOLECULE;
+  }
+
+  /***
+   * Guesses the kind of a chemical uploaded as raw bytes. Binary cdx files are scanned for reaction
+   * steps, and anything else is sniffed from its text.
+   */
+  static Kind sniff(byte[] input, String inputFormat) {
+    if (input.length >= CDX_MAGIC.length
+        && Arrays.equals(input, 0, CDX_MAGIC.length, CDX_MAGIC, 0, CDX_MAGIC.length)) {
+      return hasCdxReactionStep(input) ? Kind.REACTION : Kind.MOLECULE;
+    }
+    String text =
+        new String(input, 0, Math.min(input.length, SNIFFED_BYTES), StandardCharsets.UTF_8);
+    return sniff(text, inputFormat);
+  }
+
+  private static boolean isCdxReaction(String base64) {
+    byte[] cdx;
+    try {
+      cdx = Base64.getMimeDecoder().decode(base64.strip());
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return hasCdxReactionStep(cdx);
+  }
+
+  private static boolean hasCdxReactionStep(byte[] cdx) {
+    for (int i = 0; i < cdx.length - 1; i++) {
+      if (cdx[i] == CDX_REACTION_STEP[0] && cdx[i + 1] == CDX_REACTION_STEP[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -1,16 +1,25 @@
 package com.researchspace.chemistry.convert;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 @WebMvcTest(ConvertController.class)
@@ -21,6 +30,10 @@ public class ConvertControllerTest {
 
   private static final String ENDPOINT = "/chemistry/convert";
 
+  private static final String BATCH_ENDPOINT = "/chemistry/convert/batch";
+
+  private static final String STREAM_ENDPOINT = "/chemistry/convert/stream";
+
   @Test
   void whenValidRequest_thenReturns200AndResult() throws Exception {
     String smiles = "CCC";
@@ -69,4 +82,111 @@ public class ConvertControllerTest {
             post(ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(requestWithMissingField))
         .andExpect(status().isBadRequest());
   }
+
+  @Test
+  void whenOctetStreamRequest_thenBytesConverted() throws Exception {
+    byte[] cdx = {'V', 'j', 'C', 'D', '0', '1', '0', '0'};
+    when(convertService.convert(cdx, "cdx", "smiles")).thenReturn("CCC");
+
+    mockMvc
+        .perform(
+            post(ENDPOINT)
+                .param("inputFormat", "cdx")
+                .param("outputFormat", "smiles")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(cdx))
+        .andExpect(status().isOk())
+        .andExpect(MockMvcResultMatchers.content().string("CCC"));
+  }
+
+  @Test
+  void whenMultipartRequestWithoutInputFormat_thenFormatFromFileExtension() throws Exception {
+    byte[] cdx = {'V', 'j', 'C', 'D', '0', '1', '0', '0'};
+    when(convertService.convert(cdx, "cdx", "smiles")).thenReturn("CCC");
+
+    mockMvc
+        .perform(
+            multipart(ENDPOINT)
+                .file(new MockMultipartFile("file", "aspirin.cdx", null, cdx))
+                .param("outputFormat", "smiles"))
+        .andExpect(status().isOk())
+        .andExpect(MockMvcResultMatchers.content().string("CCC"));
+  }
+
+  @Test
+  void whenValidBatchRequest_thenReturns200AndResultsInOrder() throws Exception {
+    when(convertService.convertAll(any()))
+        .thenReturn(
+            List.of(
+                ConvertResult.converted("CCC"),
+                ConvertResult.failed("Unable to perform conversion to mol.")));
+    String validRequestBody =
+        """
+            [
+                {
+                    "outputFormat": "smiles",
+                    "input": "CCC"
+                },
+                {
+                    "outputFormat": "mol",
+                    "input": "invalid"
+                }
+            ]
+            """;
+
+    mockMvc
+        .perform(
+            post(BATCH_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(validRequestBody))
+        .andExpect(status().isOk())
+        .andExpect(
+            MockMvcResultMatchers.content()
+                .json(
+                    "[{\"output\":\"CCC\"},"
+                        + "{\"error\":\"Unable to perform conversion to mol.\"}]"));
+  }
+
+  @Test
+  void whenEmptyBatchRequest_thenReturns400() throws Exception {
+    mockMvc
+        .perform(post(BATCH_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content("[]"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void whenValidStreamRequest_thenReturns200AndStreamedRecords() throws Exception {
+    doAnswer(
+            invocation -> {
+              OutputStream output = invocation.getArgument(3);
+              output.write("CCC\nCO\n".getBytes(StandardCharsets.UTF_8));
+              return null;
+            })
+        .when(convertService)
+        .convertRecords(any(), eq("sdf"), eq("smiles"), any());
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                post(STREAM_ENDPOINT)
+                    .param("inputFormat", "sdf")
+                    .param("outputFormat", "smiles")
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .content("records"))
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(MockMvcResultMatchers.content().string("CCC\nCO\n"));
+  }
+
+  @Test
+  void whenStreamRequestMissingFormat_thenReturns400() throws Exception {
+    mockMvc
+        .perform(
+            post(STREAM_ENDPOINT)
+                .param("inputFormat", "sdf")
+                .contentType(MediaType.TEXT_PLAIN)
+                .content("records"))
+        .andExpect(status().isBadRequest());
+  }
 }
@@ -83,6 +83,24 @@ public class ConvertIT {
     assertTrue(response.getBody().startsWith(VALID_KETCHER_START));
   }
 
+  @Test
+  public void testConvertRawCdxBytesToKetcher() throws IOException {
+    byte[] fileBytes =
+        Files.readAllBytes(Paths.get("src/test/resources/chemistry_file_examples/aspirin.cdx"));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+
+    ResponseEntity<String> response =
+        restTemplate.postForEntity(
+            CONVERT_ENDPOINT + "?inputFormat=cdx&outputFormat=ket",
+            new HttpEntity<>(fileBytes, headers),
+            String.class);
+
+    assertTrue(response.getStatusCode().is2xxSuccessful());
+    assertNotNull(response.getBody());
+    assertTrue(response.getBody().startsWith(VALID_KETCHER_START));
+  }
+
   @Test
   public void testConvertWithoutInputFormat() {
     String smiles = "c1ccccc1";
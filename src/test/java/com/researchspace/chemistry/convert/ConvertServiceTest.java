@@ -0,0 +1,113 @@
+package com.researchspace.chemistry.convert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.convert.convertor.Convertor;
+import com.researchspace.chemistry.util.IndigoFacade;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+public class ConvertServiceTest {
+
+  @Mock Convertor convertor;
+
+  @Mock IndigoFacade indigoFacade;
+
+  @Test
+  public void whenSameConversionRepeated_thenConvertedOnce() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 1024 * 1024, 2);
+    when(convertor.convert(any())).thenReturn(Optional.of("CCC"));
+
+    assertEquals("CCC", convertService.convert(new ConvertDTO("CCC", "smi", "smiles")));
+    assertEquals("CCC", convertService.convert(new ConvertDTO("CCC", "smi", "smiles")));
+
+    verify(convertor, times(1)).convert(any());
+    assertEquals(1, convertService.cacheStats().hits());
+    assertEquals(1, convertService.cacheStats().misses());
+  }
+
+  @Test
+  public void whenSameBytesConversionRepeated_thenConvertedOnceFromBytes() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 1024 * 1024, 2);
+    byte[] cdx = {'V', 'j', 'C', 'D', '0', '1', '0', '0'};
+    when(convertor.convert(cdx, "cdx", "smiles")).thenReturn(Optional.of("CCC"));
+
+    assertEquals("CCC", convertService.convert(cdx, "cdx", "smiles"));
+    assertEquals("CCC", convertService.convert(cdx.clone(), "cdx", "smiles"));
+
+    verify(convertor, times(1)).convert(any(byte[].class), any(), any());
+    assertEquals(1, convertService.cacheStats().hits());
+  }
+
+  @Test
+  public void whenOutputFormatDiffers_thenConvertedAgain() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 1024 * 1024, 2);
+    when(convertor.convert(any())).thenReturn(Optional.of("converted"));
+
+    convertService.convert(new ConvertDTO("CCC", "smi", "smiles"));
+    convertService.convert(new ConvertDTO("CCC", "smi", "mol"));
+
+    verify(convertor, times(2)).convert(any());
+  }
+
+  @Test
+  public void whenConversionFails_thenFailureNotCached() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 1024 * 1024, 2);
+    when(convertor.convert(any())).thenReturn(Optional.empty());
+
+    ConvertDTO convertDTO = new ConvertDTO("invalid", "smi", "mol");
+    assertThrows(ChemistryException.class, () -> convertService.convert(convertDTO));
+    assertThrows(ChemistryException.class, () -> convertService.convert(convertDTO));
+
+    verify(convertor, times(2)).convert(any());
+  }
+
+  @Test
+  public void whenCacheDisabled_thenAlwaysConverted() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 0, 2);
+    when(convertor.convert(any())).thenReturn(Optional.of("CCC"));
+
+    convertService.convert(new ConvertDTO("CCC", "smi", "smiles"));
+    convertService.convert(new ConvertDTO("CCC", "smi", "smiles"));
+
+    verify(convertor, times(2)).convert(any());
+  }
+
+  @Test
+  public void whenBatchConverted_thenResultsAndErrorsInBatchOrder() {
+    ConvertService convertService = new ConvertService(convertor, indigoFacade, 1024 * 1024, 2);
+    when(convertor.convert(any()))
+        .thenAnswer(
+            invocation -> {
+              ConvertDTO convertDTO = invocation.getArgument(0);
+              return convertDTO.input().equals("invalid")
+                  ? Optional.empty()
+                  : Optional.of(convertDTO.input().toLowerCase());
+            });
+
+    List<ConvertResult> results =
+        convertService.convertAll(
+            List.of(
+                new ConvertDTO("CCC", "smiles"),
+                new ConvertDTO("invalid", "smiles"),
+                new ConvertDTO("CCO", "smiles")));
+
+    assertEquals(
+        List.of(
+            ConvertResult.converted("ccc"),
+            ConvertResult.failed("Unable to perform conversion to smiles."),
+            ConvertResult.converted("cco")),
+        results);
+  }
+}
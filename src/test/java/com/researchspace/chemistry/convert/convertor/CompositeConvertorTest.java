@@ -7,6 +7,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import com.researchspace.chemistry.convert.ConvertDTO;
+import com.researchspace.chemistry.util.HedgedExecutor;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,7 +28,9 @@ public class CompositeConvertorTest {
   @BeforeEach
   public void setUp() {
     MockitoAnnotations.openMocks(this);
-    compositeConvertor = new CompositeConvertor(openBabelConvertor, indigoConvertor);
+    compositeConvertor =
+        new CompositeConvertor(
+            openBabelConvertor, indigoConvertor, new HedgedExecutor(false, 95, 50, 1000));
   }
 
   @Test
@@ -3,11 +3,13 @@ package com.researchspace.chemistry.convert.convertor;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.convert.ConvertDTO;
 import com.researchspace.chemistry.util.CommandExecutor;
+import com.researchspace.chemistry.util.PrespawnedProcesses;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
@@ -25,12 +27,14 @@ class OpenBabelConvertorTest {
 
   @Mock CommandExecutor commandExecutor;
 
+  @Mock PrespawnedProcesses prespawnedProcesses;
+
   @InjectMocks OpenBabelConvertor convertor;
 
   @Test
   public void whenSuccessfulConversion_thenReturnResults() throws Exception {
     String expected = "C";
-    when(commandExecutor.executeCommand(any())).thenReturn(List.of(expected));
+    when(prespawnedProcesses.execute(any(), any())).thenReturn(List.of(expected));
 
     Optional<String> actual = convertor.convert(new ConvertDTO("someInput", "someFormat"));
 
@@ -39,7 +43,7 @@ class OpenBabelConvertorTest {
 
   @Test
   public void whenMultiLineOutput_thenStringJoinedWithNewLine() throws Exception {
-    when(commandExecutor.executeCommand(any())).thenReturn(List.of("C", "CC"));
+    when(prespawnedProcesses.execute(any(), any())).thenReturn(List.of("C", "CC"));
 
     String expected = "C\nCC";
     Optional<String> actual = convertor.convert(new ConvertDTO("someInput", "someFormat"));
@@ -49,7 +53,7 @@ class OpenBabelConvertorTest {
 
   @Test
   public void whenNoOutputFromOpenBabel_thenReturnEmpty() throws Exception {
-    when(commandExecutor.executeCommand(any())).thenReturn(Collections.emptyList());
+    when(prespawnedProcesses.execute(any(), any())).thenReturn(Collections.emptyList());
 
     Optional<String> actual = convertor.convert(new ConvertDTO("someInput", "someFormat"));
 
@@ -59,7 +63,7 @@ class OpenBabelConvertorTest {
   @Test
   public void whenExceptionThrownFromOpenBabel_thenWrapWithChemistryException() throws Exception {
     String ioExceptionMessage = "Problem accessing OpenBabel";
-    when(commandExecutor.executeCommand(any())).thenThrow(new IOException(ioExceptionMessage));
+    when(prespawnedProcesses.execute(any(), any())).thenThrow(new IOException(ioExceptionMessage));
 
     ChemistryException exception =
         assertThrows(
@@ -73,6 +77,15 @@ class OpenBabelConvertorTest {
     assertEquals(ioExceptionMessage, exception.getCause().getMessage());
   }
 
+  @Test
+  public void whenConverting_thenInputWrittenToStdinOfCommandForFormats() throws Exception {
+    when(prespawnedProcesses.execute(any(), any())).thenReturn(List.of("C"));
+
+    convertor.convert(new ConvertDTO("C", "smi", "mol"));
+
+    verify(prespawnedProcesses).execute(List.of("obabel", "-ismi", "-omol"), "C".getBytes());
+  }
+
   @ParameterizedTest
   @ValueSource(
       strings = {
@@ -83,7 +96,7 @@ class OpenBabelConvertorTest {
       })
   public void whenOpenBabelCannotConvertAndReturnsVersion_thenErrorOutputIsRecongised(
       String openBabelOutput) throws Exception {
-    when(commandExecutor.executeCommand(any())).thenReturn(List.of(openBabelOutput));
+    when(prespawnedProcesses.execute(any(), any())).thenReturn(List.of(openBabelOutput));
 
     Optional<String> actual = convertor.convert(new ConvertDTO("someInput", "someFormat"));
     assertEquals(Optional.empty(), actual);
@@ -2,6 +2,7 @@ package com.researchspace.chemistry.extract;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -10,6 +11,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -68,4 +70,15 @@ public class ExtractControllerTest {
             post(ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(requestWithMissingField))
         .andExpect(status().isBadRequest());
   }
+
+  @Test
+  void whenMultipartRequest_thenFileBytesExtracted() throws Exception {
+    byte[] cdx = {'V', 'j', 'C', 'D', '0', '1', '0', '0'};
+    when(extractService.extractBytes(cdx)).thenReturn(new ExtractionResult());
+
+    mockMvc
+        .perform(multipart(ENDPOINT).file(new MockMultipartFile("file", "aspirin.cdx", null, cdx)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.moleculeInfo").exists());
+  }
 }
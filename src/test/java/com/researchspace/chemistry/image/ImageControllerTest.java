@@ -1,14 +1,20 @@
 package com.researchspace.chemistry.image;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.List;
+import java.util.Optional;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
@@ -22,10 +28,23 @@ public class ImageControllerTest {
 
   private static final String ENDPOINT = "/chemistry/image";
 
+  private static final String BATCH_ENDPOINT = "/chemistry/image/batch";
+
+  private static final String GRID_ENDPOINT = "/chemistry/image/grid";
+
+  private static final String VALID_REQUEST_BODY =
+      """
+          {
+              "input": "CCC",
+              "inputFormat": "smiles",
+              "outputFormat": "png"
+          }
+          """;
+
   @Test
   void whenValidRequest_thenReturns200AndResult() throws Exception {
     byte[] results = "an image".getBytes();
-    when(imageService.exportImage(any())).thenReturn(results);
+    when(imageService.renderImage(any())).thenReturn(new RenderedImage(results, "abc"));
     String validRequestBody =
         """
             {
@@ -38,6 +57,59 @@ public class ImageControllerTest {
     mockMvc
         .perform(post(ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(validRequestBody))
         .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"abc\""))
+        .andExpect(content().string("an image"));
+  }
+
+  @Test
+  void whenETagOfCachedImageMatches_thenReturns304WithoutRendering() throws Exception {
+    when(imageService.cachedETag(any())).thenReturn(Optional.of("abc"));
+
+    mockMvc
+        .perform(
+            post(ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"xyz\", W/\"abc\"")
+                .content(VALID_REQUEST_BODY))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"abc\""))
+        .andExpect(content().bytes(new byte[0]));
+
+    verify(imageService, never()).renderImage(any());
+  }
+
+  @Test
+  void whenETagDoesNotMatch_thenReturns200AndImage() throws Exception {
+    when(imageService.cachedETag(any())).thenReturn(Optional.of("abc"));
+    when(imageService.renderImage(any()))
+        .thenReturn(new RenderedImage("an image".getBytes(), "abc"));
+
+    mockMvc
+        .perform(
+            post(ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"xyz\"")
+                .content(VALID_REQUEST_BODY))
+        .andExpect(status().isOk())
+        .andExpect(content().string("an image"));
+  }
+
+  @Test
+  void whenOctetStreamRequest_thenImageOfBytesReturned() throws Exception {
+    byte[] cdx = {'V', 'j', 'C', 'D', '0', '1', '0', '0'};
+    when(imageService.renderImage(cdx, new ImageOptions("cdx", "png", "100", "100")))
+        .thenReturn(new RenderedImage("an image".getBytes(), "abc"));
+
+    mockMvc
+        .perform(
+            post(ENDPOINT)
+                .param("inputFormat", "cdx")
+                .param("outputFormat", "png")
+                .param("width", "100")
+                .param("height", "100")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(cdx))
+        .andExpect(status().isOk())
         .andExpect(content().string("an image"));
   }
 
@@ -73,4 +145,70 @@ public class ImageControllerTest {
                 .content(requestWithIncorrectField))
         .andExpect(status().isBadRequest());
   }
+
+  @Test
+  void whenValidBatchRequest_thenReturns200AndBase64ImagesInOrder() throws Exception {
+    when(imageService.exportImages(any()))
+        .thenReturn(
+            List.of(
+                ImageResult.exported("an image".getBytes()),
+                ImageResult.failed("Failed to generate image with all available libraries.")));
+    String validRequestBody =
+        """
+            [
+                {"input": "CCC", "inputFormat": "smiles", "outputFormat": "png"},
+                {"input": "invalid", "inputFormat": "smiles", "outputFormat": "png"}
+            ]
+            """;
+
+    mockMvc
+        .perform(
+            post(BATCH_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(validRequestBody))
+        .andExpect(status().isOk())
+        .andExpect(
+            content()
+                .json(
+                    "[{\"image\":\"YW4gaW1hZ2U=\"},"
+                        + "{\"error\":"
+                        + "\"Failed to generate image with all available libraries.\"}]"));
+  }
+
+  @Test
+  void whenEmptyBatchRequest_thenReturns400() throws Exception {
+    mockMvc
+        .perform(post(BATCH_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content("[]"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void whenValidGridRequest_thenReturns200AndGridImage() throws Exception {
+    when(imageService.exportGrid(any())).thenReturn("a grid".getBytes());
+    String validRequestBody =
+        """
+            {
+                "cells": [
+                    {"input": "CCC", "label": "123"},
+                    {"input": "c1ccccc1", "inputFormat": "smiles", "label": "456"}
+                ],
+                "outputFormat": "png",
+                "columns": 2
+            }
+            """;
+
+    mockMvc
+        .perform(
+            post(GRID_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content(validRequestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().string("a grid"));
+  }
+
+  @Test
+  void whenGridRequestHasNoCells_thenReturns400() throws Exception {
+    mockMvc
+        .perform(
+            post(GRID_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"cells\": [], \"outputFormat\": \"png\"}"))
+        .andExpect(status().isBadRequest());
+  }
 }
@@ -2,13 +2,18 @@ package com.researchspace.chemistry.image;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.image.generator.IndigoImageGenerator;
+import com.researchspace.chemistry.util.IndigoFacade;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 import javax.imageio.ImageIO;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -23,6 +28,10 @@ public class ImageServiceIT {
 
   @Autowired ImageService imageService;
 
+  @Autowired IndigoImageGenerator indigoImageGenerator;
+
+  @Autowired IndigoFacade indigoFacade;
+
   @ParameterizedTest
   @ValueSource(strings = {"png", "svg", "jpg", "jpeg"})
   public void whenValidImageFormat_thenImageGenerated(String outputFormat) {
@@ -86,4 +95,64 @@ public class ImageServiceIT {
 
     assertArrayEquals(expected, actual);
   }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"png", "jpg"})
+  public void whenGridExported_thenSingleImageOfAllCells(String outputFormat) throws Exception {
+    GridImageDTO gridDTO =
+        new GridImageDTO(
+            List.of(
+                new GridImageDTO.Cell("CCC", INPUT_FORMAT, "1"),
+                new GridImageDTO.Cell("c1ccccc1", INPUT_FORMAT, "2"),
+                new GridImageDTO.Cell("not a chemical", INPUT_FORMAT, "3")),
+            outputFormat,
+            2,
+            150,
+            150);
+
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageService.exportGrid(gridDTO)));
+
+    assertNotNull(image);
+    assertTrue(image.getWidth() > 0 && image.getHeight() > 0);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"CC(=O)Oc1ccccc1C(=O)O", "CCO>>CC=O"})
+  public void whenSameChemicalExportedAtManySizes_thenLaidOutOnce(String chemical)
+      throws Exception {
+    long hitsBefore = indigoImageGenerator.layoutCacheStats().hits();
+
+    for (int size : new int[] {80, 160, 320}) {
+      ImageDTO imageDTO =
+          new ImageDTO(chemical, INPUT_FORMAT, "png", String.valueOf(size), String.valueOf(size));
+      BufferedImage image =
+          ImageIO.read(new ByteArrayInputStream(imageService.exportImage(imageDTO)));
+      assertEquals(size, image.getWidth());
+      assertEquals(size, image.getHeight());
+    }
+
+    assertEquals(2, indigoImageGenerator.layoutCacheStats().hits() - hitsBefore);
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "amineNotAmide_GitHub_chemaxon_jchem-examples.rxn",
+        "ether_GitHub_chemaxon_jchem-examples.rxn",
+        "methane-combustion.rxn",
+        "esterification.mrv"
+      })
+  public void whenReactionWithCoordinatesDrawn_thenSameAsWithoutLayoutCache(String file)
+      throws Exception {
+    String input =
+        Files.readString(Paths.get("src/test/resources/chemistry_file_examples/" + file));
+    ImageDTO imageDTO =
+        new ImageDTO(input, file.substring(file.lastIndexOf('.') + 1), "svg", "300", "300");
+    IndigoImageGenerator withoutLayoutCache = new IndigoImageGenerator(indigoFacade, 0.75f, 0);
+
+    byte[] expected = withoutLayoutCache.generateImage(imageDTO).orElseThrow();
+
+    assertArrayEquals(expected, indigoImageGenerator.generateImage(imageDTO).orElseThrow());
+    assertArrayEquals(expected, indigoImageGenerator.generateImage(imageDTO).orElseThrow());
+  }
 }
@@ -6,11 +6,14 @@ import static org.mockito.Mockito.*;
 import com.researchspace.chemistry.ChemistryException;
 import com.researchspace.chemistry.image.generator.IndigoImageGenerator;
 import com.researchspace.chemistry.image.generator.OpenBabelImageGenerator;
+import com.researchspace.chemistry.util.HedgedExecutor;
+import java.util.List;
 import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
@@ -20,7 +23,15 @@ public class ImageServiceTest {
 
   @Mock private OpenBabelImageGenerator openBabelImageGenerator;
 
-  @InjectMocks private ImageService imageService;
+  @Spy private HedgedExecutor hedgedExecutor = new HedgedExecutor(false, 95, 50, 1000);
+
+  private ImageService imageService;
+
+  @BeforeEach
+  void setUp() {
+    imageService =
+        new ImageService(indigoImageGenerator, openBabelImageGenerator, hedgedExecutor, 1024, 2);
+  }
 
   @Test
   void useIndigoFirst() {
@@ -60,4 +71,81 @@ public class ImageServiceTest {
     verify(indigoImageGenerator).generateImage(imageDTO);
     verify(openBabelImageGenerator).generateImage(imageDTO);
   }
+
+  @Test
+  void whenSameImageRequestedAgain_thenServedFromCacheWithSameETag() {
+    ImageDTO imageDTO = new ImageDTO("CCC", "smi", "png", "100", "100");
+    byte[] image = new byte[] {1, 2, 3};
+    when(indigoImageGenerator.generateImage(imageDTO)).thenReturn(Optional.of(image));
+
+    RenderedImage rendered = imageService.renderImage(imageDTO);
+    RenderedImage cached = imageService.renderImage(imageDTO);
+
+    verify(indigoImageGenerator, times(1)).generateImage(imageDTO);
+    assertArrayEquals(image, cached.image());
+    assertEquals(rendered.eTag(), cached.eTag());
+    assertEquals(Optional.of(rendered.eTag()), imageService.cachedETag(imageDTO));
+  }
+
+  @Test
+  void whenETagCheckedBeforeRendering_thenOneLookupCounted() {
+    ImageDTO imageDTO = new ImageDTO("CCC", "smi", "png", "100", "100");
+    when(indigoImageGenerator.generateImage(imageDTO))
+        .thenReturn(Optional.of(new byte[] {1, 2, 3}));
+
+    imageService.cachedETag(imageDTO);
+    imageService.renderImage(imageDTO);
+    imageService.cachedETag(imageDTO);
+    imageService.renderImage(imageDTO);
+
+    assertEquals(1, imageService.cacheStats().hits());
+    assertEquals(1, imageService.cacheStats().misses());
+  }
+
+  @Test
+  void whenImageSizeDiffers_thenRenderedAgain() {
+    ImageDTO small = new ImageDTO("CCC", "smi", "png", "100", "100");
+    ImageDTO large = new ImageDTO("CCC", "smi", "png", "500", "500");
+    when(indigoImageGenerator.generateImage(any(ImageDTO.class)))
+        .thenReturn(Optional.of(new byte[] {1, 2, 3}));
+
+    imageService.renderImage(small);
+    imageService.renderImage(large);
+
+    verify(indigoImageGenerator, times(2)).generateImage(any(ImageDTO.class));
+    assertTrue(imageService.cachedETag(new ImageDTO("CCC", "smi", "png", "200", "200")).isEmpty());
+  }
+
+  @Test
+  void whenBatchExported_thenEachResultInOrderAndFailuresReported() {
+    ImageDTO valid = new ImageDTO("CCC", "smi", "png", "100", "100");
+    ImageDTO invalid = new ImageDTO("invalid", "smi", "png", "100", "100");
+    byte[] image = new byte[] {1, 2, 3};
+    when(indigoImageGenerator.generateImage(valid)).thenReturn(Optional.of(image));
+    when(indigoImageGenerator.generateImage(invalid)).thenReturn(Optional.empty());
+    when(openBabelImageGenerator.generateImage(invalid)).thenReturn(Optional.empty());
+
+    List<ImageResult> results = imageService.exportImages(List.of(valid, invalid));
+
+    assertArrayEquals(image, results.get(0).image());
+    assertNull(results.get(0).error());
+    assertNull(results.get(1).image());
+    assertEquals(
+        "Failed to generate image with all available libraries.", results.get(1).error());
+  }
+
+  @Test
+  void whenImagePrerendered_thenServedFromCacheWithoutRenderingAgain() {
+    ImageDTO imageDTO = new ImageDTO("CCC", "smi", "png", "100", "100");
+    byte[] image = new byte[] {1, 2, 3};
+    when(indigoImageGenerator.generateImage(imageDTO)).thenReturn(Optional.of(image));
+
+    assertTrue(imageService.prerenderImage(imageDTO));
+    assertFalse(imageService.prerenderImage(imageDTO));
+    assertEquals(0, imageService.cacheStats().misses());
+
+    assertArrayEquals(image, imageService.exportImage(imageDTO));
+    verify(indigoImageGenerator, times(1)).generateImage(imageDTO);
+    assertEquals(1, imageService.cacheStats().hits());
+  }
 }
@@ -0,0 +1,65 @@
+package com.researchspace.chemistry.image;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ThumbnailPrerendererTest {
+
+  private final ImageService imageService = mock(ImageService.class);
+
+  @Test
+  public void whenChemicalSaved_thenEachSizePrerendered() {
+    ThumbnailPrerenderer prerenderer =
+        new ThumbnailPrerenderer(imageService, List.of("100x100", "500x250"), "png", 10);
+
+    prerenderer.prerender("CCC", "smi");
+
+    verify(imageService, timeout(5000))
+        .prerenderImage(new ImageDTO("CCC", "smi", "png", "100", "100"));
+    verify(imageService, timeout(5000))
+        .prerenderImage(new ImageDTO("CCC", "smi", "png", "500", "250"));
+    prerenderer.shutdown();
+  }
+
+  @Test
+  public void whenPrerenderingFails_thenLaterChemicalsStillPrerendered() {
+    ThumbnailPrerenderer prerenderer =
+        new ThumbnailPrerenderer(imageService, List.of("100x100"), "png", 10);
+    ImageDTO invalid = new ImageDTO("invalid", "smi", "png", "100", "100");
+    when(imageService.prerenderImage(invalid)).thenThrow(new ChemistryException("invalid"));
+
+    prerenderer.prerender("invalid", "smi");
+    prerenderer.prerender("CCC", "smi");
+
+    verify(imageService, timeout(5000))
+        .prerenderImage(new ImageDTO("CCC", "smi", "png", "100", "100"));
+    prerenderer.shutdown();
+  }
+
+  @Test
+  public void whenNoSizesConfigured_thenNothingPrerendered() {
+    ThumbnailPrerenderer prerenderer = new ThumbnailPrerenderer(imageService, List.of(), "png", 10);
+
+    prerenderer.prerender("CCC", "smi");
+
+    verify(imageService, after(200).never()).prerenderImage(any());
+    prerenderer.shutdown();
+  }
+
+  @Test
+  public void whenSizeInvalid_thenThrowException() {
+    assertThrows(
+        ChemistryException.class,
+        () -> new ThumbnailPrerenderer(imageService, List.of("100"), "png", 10));
+  }
+}
@@ -0,0 +1,58 @@
+package com.researchspace.chemistry.image.generator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class JpegEncoderTest {
+
+  private final JpegEncoder jpegEncoder = new JpegEncoder(0.75f);
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  public void whenPngConverted_thenJpgHasSameSizeAndColoursOnWhite(boolean transparent)
+      throws IOException {
+    byte[] png = redSquarePng(transparent);
+
+    // converted twice, as the reader and writer are reused
+    for (int i = 0; i < 2; i++) {
+      BufferedImage jpg = ImageIO.read(new ByteArrayInputStream(jpegEncoder.pngToJpg(png)));
+
+      assertEquals(200, jpg.getWidth());
+      assertEquals(100, jpg.getHeight());
+      assertColour(Color.RED, jpg.getRGB(30, 30));
+      assertColour(Color.WHITE, jpg.getRGB(150, 80));
+    }
+  }
+
+  private static byte[] redSquarePng(boolean transparent) throws IOException {
+    BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = image.createGraphics();
+    if (!transparent) {
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, 200, 100);
+    }
+    graphics.setColor(Color.RED);
+    graphics.fillRect(10, 10, 50, 50);
+    graphics.dispose();
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", png);
+    return png.toByteArray();
+  }
+
+  // jpg compression is lossy, so colours are only compared approximately
+  private static void assertColour(Color expected, int rgb) {
+    Color actual = new Color(rgb);
+    assertEquals(expected.getRed(), actual.getRed(), 8);
+    assertEquals(expected.getGreen(), actual.getGreen(), 8);
+    assertEquals(expected.getBlue(), actual.getBlue(), 8);
+  }
+}
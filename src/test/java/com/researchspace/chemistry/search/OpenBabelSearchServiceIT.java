@@ -0,0 +1,133 @@
+package com.researchspace.chemistry.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+
+@SpringBootTest(properties = {"search.engine=openbabel"})
+@ContextConfiguration(initializers = OpenBabelSearchServiceIT.Initializer.class)
+public class OpenBabelSearchServiceIT {
+
+  @TempDir static File tempDir;
+
+  @Autowired SearchService searchService;
+
+  final File INDEX_DIR = new File(tempDir.getPath() + "/openbabel");
+
+  final File NON_INDEXED = new File(INDEX_DIR, "nonIndexedChemicals-0.smi");
+
+  final File INDEX = new File(tempDir.getPath() + "/chemicalsMaster.smi");
+
+  @AfterEach
+  public void clearSearchIndexes() throws IOException {
+    searchService.clearFiles();
+  }
+
+  @Test
+  public void searchFilesCreatedCorrectly() {
+    List<File> expectedFiles = Arrays.asList(NON_INDEXED, INDEX);
+    expectedFiles.forEach(file -> assertTrue(file.exists()));
+  }
+
+  @Test
+  public void whenSaveChemical_thenAddedToNonIndexedFile() throws Exception {
+    searchService.saveChemicals(new SaveDTO("C", "1234"));
+    searchService.saveChemicals(new SaveDTO("CCC", "5678"));
+
+    String fileContents = Files.readString(NON_INDEXED.toPath());
+    assertEquals("C 1234\nCCC 5678\n", fileContents);
+  }
+
+  @Test
+  public void whenFastSearchUpdated_thenNewGenerationPublishedAndSavesGoToNewNonIndexedFile()
+      throws Exception {
+    searchService.saveChemicals(new SaveDTO("C", "123"));
+    searchService.saveChemicals(new SaveDTO("CCC", "456"));
+    assertEquals(2, Files.readAllLines(NON_INDEXED.toPath()).size());
+
+    searchService.indexChemicals();
+    assertTrue(new File(INDEX_DIR, "fastSearchChemicals-1.fs").exists());
+    assertEquals(
+        "C 123\nCCC 456\n",
+        Files.readString(new File(INDEX_DIR, "indexedChemicals-1.smi").toPath()));
+
+    searchService.saveChemicals(new SaveDTO("CCCC", "789"));
+    File nextNonIndexed = new File(INDEX_DIR, "nonIndexedChemicals-1.smi");
+    assertEquals(List.of("CCCC 789"), Files.readAllLines(nextNonIndexed.toPath()));
+
+    List<String> results = searchService.search(new SearchDTO("CC", "smiles"));
+    assertEquals(List.of("789", "456"), results);
+  }
+
+  @Test
+  public void whenReindexedRepeatedly_thenReplacedGenerationKeptAndOlderDeleted() throws Exception {
+    searchService.saveChemicals(new SaveDTO("CCC", "456"));
+    searchService.indexChemicals();
+    searchService.indexChemicals();
+    searchService.indexChemicals();
+
+    assertFalse(new File(INDEX_DIR, "fastSearchChemicals-1.fs").exists());
+    assertTrue(new File(INDEX_DIR, "fastSearchChemicals-2.fs").exists());
+    assertTrue(new File(INDEX_DIR, "fastSearchChemicals-3.fs").exists());
+    assertEquals(List.of("456"), searchService.search(new SearchDTO("CC", "smiles")));
+  }
+
+  @Test
+  public void whenUpgradedFromSingleIndex_thenOldIndexSearchedUntilReplaced() throws Exception {
+    searchService.saveChemicals(new SaveDTO("CCC", "456"));
+    File legacyFastSearch = new File(tempDir, "fastSearchChemicals.fs");
+    new ProcessBuilder("obabel", INDEX.getPath(), "-ofs", "-O", legacyFastSearch.getPath())
+        .start()
+        .waitFor();
+    File legacyNonIndexed = new File(tempDir, "nonIndexedChemicals.smi");
+    Files.writeString(INDEX.toPath(), "CCCC 789\n", StandardOpenOption.APPEND);
+    Files.writeString(legacyNonIndexed.toPath(), "CCCC 789\n");
+    FileUtils.deleteDirectory(INDEX_DIR);
+
+    searchService.initFiles();
+    // non-indexed chemicals are searched before indexed ones, unlike chemicalsMaster.smi
+    assertEquals(List.of("789", "456"), searchService.search(new SearchDTO("CC", "smiles")));
+
+    searchService.indexChemicals();
+    assertTrue(legacyFastSearch.exists());
+    searchService.indexChemicals();
+    assertFalse(legacyFastSearch.exists());
+    assertFalse(legacyNonIndexed.exists());
+    assertEquals(List.of("456", "789"), searchService.search(new SearchDTO("CC", "smiles")));
+  }
+
+  @Test
+  public void whenExactMatchSearching_thenSubstructuresNotFound() throws Exception {
+    searchService.saveChemicals(new SaveDTO("CC", "123"));
+    searchService.saveChemicals(new SaveDTO("CCC", "456"));
+
+    List<String> results = searchService.search(new SearchDTO("CC", "smiles", SearchType.EXACT));
+    assertEquals(List.of("123"), results);
+  }
+
+  // set the file directory property to the temp directory managed by junit
+  static class Initializer
+      implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+      TestPropertyValues.of("search.file.dir=" + tempDir).applyTo(context);
+    }
+  }
+}
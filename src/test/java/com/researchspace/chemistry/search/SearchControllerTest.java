@@ -4,12 +4,16 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.researchspace.chemistry.search.engine.SearchHit;
 import java.util.List;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +21,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @WebMvcTest(SearchController.class)
 public class SearchControllerTest {
@@ -27,8 +32,14 @@ public class SearchControllerTest {
 
   private static final String SEARCH_ENDPOINT = "/chemistry/search";
 
+  private static final String SEARCH_PAGE_ENDPOINT = "/chemistry/search/page";
+
+  private static final String SEARCH_STREAM_ENDPOINT = "/chemistry/search/stream";
+
   private static final String SAVE_ENDPOINT = "/chemistry/save";
 
+  private static final String SAVE_BATCH_ENDPOINT = "/chemistry/save/batch";
+
   private static final String CLEAR_SEARCH_INDEXES_ENDPOINT = "/chemistry/clearSearchIndexes";
 
   @Test
@@ -83,6 +94,94 @@ public class SearchControllerTest {
         .andExpect(status().isBadRequest());
   }
 
+  @Test
+  void whenValidSearchPageRequest_thenReturns200AndPage() throws Exception {
+    when(searchService.searchPage(any())).thenReturn(new SearchPage(List.of("123"), "7"));
+    String validRequestBody =
+        """
+            {
+                "chemicalSearchTerm": "CCC",
+                "limit": 1
+            }
+            """;
+
+    mockMvc
+        .perform(
+            post(SEARCH_PAGE_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(validRequestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().json("{\"chemicalIds\":[\"123\"],\"nextCursor\":\"7\"}"));
+  }
+
+  @Test
+  void whenSimilaritySearchHasCursor_thenReturns400() throws Exception {
+    String invalidRequestBody =
+        """
+            {
+                "chemicalSearchTerm": "CCC",
+                "searchType": "SIMILARITY",
+                "cursor": "7"
+            }
+            """;
+
+    mockMvc
+        .perform(
+            post(SEARCH_PAGE_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(invalidRequestBody))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void whenSearchPageLimitNotPositive_thenReturns400() throws Exception {
+    String invalidRequestBody =
+        """
+            {
+                "chemicalSearchTerm": "CCC",
+                "limit": 0
+            }
+            """;
+
+    mockMvc
+        .perform(
+            post(SEARCH_PAGE_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(invalidRequestBody))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void whenValidSearchStreamRequest_thenHitsWrittenAsNdjson() throws Exception {
+    when(searchService.searchHits(any()))
+        .thenReturn(Stream.of(new SearchHit("123", "4"), new SearchHit("456", "9")));
+    String validRequestBody =
+        """
+            {
+                "chemicalSearchTerm": "CCC"
+            }
+            """;
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                post(SEARCH_STREAM_ENDPOINT)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(validRequestBody))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+        .andExpect(
+            content()
+                .string(
+                    "{\"chemicalId\":\"123\",\"cursor\":\"4\"}\n"
+                        + "{\"chemicalId\":\"456\",\"cursor\":\"9\"}\n"));
+  }
+
   @Test
   void whenValidSaveRequest_thenReturns200AndResult() throws Exception {
     String validRequestBody =
@@ -134,6 +233,64 @@ public class SearchControllerTest {
         .andExpect(status().isBadRequest());
   }
 
+  @Test
+  void whenValidSaveBatchRequest_thenReturns200AndResult() throws Exception {
+    String validRequestBody =
+        """
+            [
+                {
+                    "chemical": "CCC",
+                    "chemicalId": "123"
+                },
+                {
+                    "chemical": "CCO",
+                    "chemicalId": "456"
+                }
+            ]
+            """;
+
+    mockMvc
+        .perform(
+            post(SAVE_BATCH_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(validRequestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().string("Saved"));
+
+    verify(searchService)
+        .saveChemicals(List.of(new SaveDTO("CCC", "123", null), new SaveDTO("CCO", "456", null)));
+  }
+
+  @Test
+  void whenEmptySaveBatchRequest_thenReturns400() throws Exception {
+    mockMvc
+        .perform(post(SAVE_BATCH_ENDPOINT).contentType(MediaType.APPLICATION_JSON).content("[]"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void whenInvalidChemicalInSaveBatchRequest_thenReturns400() throws Exception {
+    String requestWithInvalidChemical =
+        """
+            [
+                {
+                    "chemical": "CCC",
+                    "chemicalId": "123"
+                },
+                {
+                    "chemical": "CCO"
+                }
+            ]
+            """;
+
+    mockMvc
+        .perform(
+            post(SAVE_BATCH_ENDPOINT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestWithInvalidChemical))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   void whenValidCleanSearchIndexesRequest_thenReturns200() throws Exception {
     doNothing().when(searchService).clearFiles();
@@ -2,16 +2,14 @@ package com.researchspace.chemistry.search;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -36,28 +34,16 @@ public class SearchServiceIT {
   @TempDir static File tempDir;
 
   @Autowired SearchService searchService;
-  final File INDEXED = new File(tempDir.getPath() + "/fastSearchChemicals.fs");
-
-  final File NON_INDEXED = new File(tempDir.getPath() + "/nonIndexedChemicals.smi");
-
   final File INDEX = new File(tempDir.getPath() + "/chemicalsMaster.smi");
 
   @AfterEach
-  public void clearFileContents() {
-    Arrays.asList(INDEXED, NON_INDEXED, INDEX)
-        .forEach(
-            file -> {
-              try {
-                new PrintWriter(file).close();
-              } catch (FileNotFoundException e) {
-              }
-            });
+  public void clearSearchIndexes() throws IOException {
+    searchService.clearFiles();
   }
 
   @Test
   public void searchFilesCreatedCorrectly() {
-    List<File> expectedFiles = Arrays.asList(INDEXED, NON_INDEXED, INDEX);
-    expectedFiles.forEach(file -> assertTrue(file.exists()));
+    assertTrue(INDEX.exists());
   }
 
   @Test
@@ -65,10 +51,103 @@ public class SearchServiceIT {
     searchService.saveChemicals(new SaveDTO("C", "1234"));
     searchService.saveChemicals(new SaveDTO("CCC", "5678"));
 
-    String fileContents = Files.readString(NON_INDEXED.toPath());
+    String fileContents = Files.readString(INDEX.toPath());
     assertEquals("C 1234\nCCC 5678\n", fileContents);
   }
 
+  @Test
+  public void whenSaveBatch_thenAllAddedToFileInOrderAndSearchable() throws Exception {
+    searchService.saveChemicals(
+        List.of(new SaveDTO("C", "1234"), new SaveDTO("CCC", "5678"), new SaveDTO("CCO", "9")));
+
+    String fileContents = Files.readString(INDEX.toPath());
+    assertEquals("C 1234\nCCC 5678\nCCO 9\n", fileContents);
+    assertEquals(List.of("5678", "9"), searchService.search(createSearchDTO("CC")));
+  }
+
+  @Test
+  public void whenSameChemicalSavedAsDifferentSmiles_thenSavedWithSameCanonicalSmiles()
+      throws Exception {
+    searchService.saveChemicals(
+        List.of(new SaveDTO("OCC", "1"), new SaveDTO("C(O)C", "2"), new SaveDTO("CCO", "3")));
+
+    List<String> savedSmiles =
+        Files.readAllLines(INDEX.toPath()).stream().map(line -> line.split(" ")[0]).toList();
+    assertEquals(3, savedSmiles.size());
+    assertEquals(1, savedSmiles.stream().distinct().count());
+  }
+
+  @Test
+  public void whenSearchPaged_thenEachPageContinuesFromCursor() throws Exception {
+    searchService.saveChemicals(
+        List.of(
+            new SaveDTO("CCC", "1"),
+            new SaveDTO("C", "2"),
+            new SaveDTO("CCCC", "3"),
+            new SaveDTO("CCO", "4")));
+
+    SearchPage first =
+        searchService.searchPage(
+            new SearchDTO("CC", "smiles", SearchType.SUBSTRUCTURE, 2, null));
+    assertEquals(List.of("1", "3"), first.chemicalIds());
+
+    SearchPage second =
+        searchService.searchPage(
+            new SearchDTO("CC", "smiles", SearchType.SUBSTRUCTURE, 2, first.nextCursor()));
+    assertEquals(List.of("4"), second.chemicalIds());
+    assertNull(second.nextCursor());
+  }
+
+  @Test
+  public void whenLastPageExactlyFull_thenNoNextCursor() throws Exception {
+    searchService.saveChemicals(
+        List.of(new SaveDTO("CCC", "1"), new SaveDTO("C", "2"), new SaveDTO("CCCC", "3")));
+
+    SearchPage page =
+        searchService.searchPage(
+            new SearchDTO("CC", "smiles", SearchType.SUBSTRUCTURE, 2, null));
+
+    assertEquals(List.of("1", "3"), page.chemicalIds());
+    assertNull(page.nextCursor());
+  }
+
+  @Test
+  public void whenSimilaritySearch_thenMostSimilarChemicalsReturnedFirst() throws Exception {
+    searchService.saveChemicals(
+        List.of(new SaveDTO("CCCO", "1"), new SaveDTO("CCC", "2"), new SaveDTO("c1ccccc1", "3")));
+
+    List<String> results =
+        searchService.search(
+            new SearchDTO("CCC", "smiles", SearchType.SIMILARITY, null, null, 0.2, 2));
+    assertEquals(List.of("2", "1"), results);
+  }
+
+  @Test
+  public void whenSameSearchRepeated_thenCachedUntilChemicalsSaved() throws Exception {
+    searchService.saveChemicals(new SaveDTO("CCC", "1"));
+    long hits = searchService.cacheStats().results().hits();
+
+    assertEquals(List.of("1"), searchService.search(createSearchDTO("CC")));
+    assertEquals(List.of("1"), searchService.search(createSearchDTO("CC")));
+    assertEquals(hits + 1, searchService.cacheStats().results().hits());
+
+    searchService.saveChemicals(new SaveDTO("CCCC", "2"));
+    assertEquals(List.of("1", "2"), searchService.search(createSearchDTO("CC")));
+    assertEquals(hits + 1, searchService.cacheStats().results().hits());
+  }
+
+  @Test
+  public void whenPageCached_thenWeighedByItsChemicalIds() throws Exception {
+    searchService.saveChemicals(
+        List.of(new SaveDTO("CCC", "1"), new SaveDTO("CCCC", "2"), new SaveDTO("CCCCC", "3")));
+
+    assertEquals(List.of("1", "2", "3"), searchService.search(createSearchDTO("CC")));
+
+    assertEquals(
+        SearchService.cachedWeight(new SearchPage(List.of("1", "2", "3"), null)),
+        searchService.cacheStats().results().weight());
+  }
+
   @Test
   public void whenSearchChemicalExists_thenIsFound() throws Exception {
     searchService.saveChemicals(new SaveDTO("C", "1234"));
@@ -285,15 +364,6 @@ public class SearchServiceIT {
     assertEquals(expectedChemIdHits, results);
   }
 
-  @Test
-  public void whenFastSearchUpdated_thenNewlyIndexedChemsRemovedFromNonIndexedFile()
-      throws Exception {
-    add10ChemicalsFromIndex(0);
-    assertEquals(10, Files.readAllLines(NON_INDEXED.toPath()).size());
-    searchService.indexChemicals();
-    assertEquals(0, Files.readAllLines(NON_INDEXED.toPath()).size());
-  }
-
   @Test
   public void whenSameChemicalSavedTwice_thenBothAreFoundByExactMatchSearch() throws Exception {
     searchService.saveChemicals(new SaveDTO("CCC", "123"));
@@ -0,0 +1,237 @@
+package com.researchspace.chemistry.search.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.researchspace.chemistry.ChemistryException;
+import com.researchspace.chemistry.search.SearchType;
+import com.researchspace.chemistry.util.IndigoSessionPool;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IndigoSearchEngineTest {
+
+  @TempDir File tempDir;
+
+  File chemicalsMaster;
+
+  IndigoSearchEngine searchEngine;
+
+  IndigoSessionPool sessionPool = new IndigoSessionPool(0, 1000, 30000);
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    chemicalsMaster = new File(tempDir, "chemicalsMaster.smi");
+    Files.writeString(chemicalsMaster.toPath(), "C 1\nCCC 2\nc1ccccc1O 3\nCCO 4\n");
+    searchEngine = engine(1000, 10, 0);
+    searchEngine.init(tempDir, chemicalsMaster);
+  }
+
+  private IndigoSearchEngine engine(int segmentSize, int mergeFactor, int verifyParallelism) {
+    return new IndigoSearchEngine(sessionPool, segmentSize, mergeFactor, verifyParallelism);
+  }
+
+  @Test
+  public void whenInitialised_thenChemicalsInMasterFileAreSearchable() {
+    List<String> results = searchEngine.search("CC", SearchType.SUBSTRUCTURE);
+    assertEquals(List.of("2", "4"), results);
+  }
+
+  @Test
+  public void whenChemicalAdded_thenIsSearchable() {
+    searchEngine.add("CCCC", "5");
+    List<String> results = searchEngine.search("CCC", SearchType.SUBSTRUCTURE);
+    assertEquals(List.of("2", "5"), results);
+  }
+
+  @Test
+  public void whenAromaticQuery_thenOnlyAromaticChemicalsFound() {
+    List<String> results = searchEngine.search("c1ccccc1", SearchType.SUBSTRUCTURE);
+    assertEquals(List.of("3"), results);
+  }
+
+  @Test
+  public void whenExactSearch_thenSubstructuresNotFound() {
+    List<String> results = searchEngine.search("CCC", SearchType.EXACT);
+    assertEquals(List.of("2"), results);
+  }
+
+  @Test
+  public void whenExactSearchWithDifferentSmilesForSameChemical_thenFound() {
+    assertEquals(List.of("3"), searchEngine.search("OC1=CC=CC=C1", SearchType.EXACT));
+  }
+
+  @Test
+  public void whenExactSearchAfterIndexing_thenAllDuplicatesFoundInSaveOrder() throws Exception {
+    searchEngine.add("CCC", "5");
+    searchEngine.index();
+    searchEngine.add("C(C)C", "6");
+    assertEquals(List.of("2", "5", "6"), searchEngine.search("CCC", SearchType.EXACT));
+  }
+
+  @Test
+  public void whenIndexed_thenSegmentWritten() throws Exception {
+    searchEngine.index();
+    File segmentsDir = new File(tempDir, IndexSegments.SEGMENTS_DIR);
+    assertEquals(1, segmentsDir.list((dir, name) -> name.startsWith("segment-")).length);
+  }
+
+  @Test
+  public void whenSegmentsFill_thenMergedAndStillSearchable() throws Exception {
+    IndigoSearchEngine smallSegments = engine(1, 2, 0);
+    smallSegments.init(new File(tempDir, "small"), chemicalsMaster);
+    smallSegments.add("CCCC", "5");
+    smallSegments.add("CCCCC", "6");
+    assertEquals(List.of("2", "5", "6"), smallSegments.search("CCC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenClearedAndSegmentsFill_thenStillMerged() throws Exception {
+    IndigoSearchEngine smallSegments = engine(1, 2, 0);
+    File dataDir = new File(tempDir, "small");
+    smallSegments.init(dataDir, chemicalsMaster);
+    smallSegments.clear();
+    smallSegments.add("CCCC", "5");
+    smallSegments.add("CCCCC", "6");
+
+    File segmentsDir = new File(dataDir, IndexSegments.SEGMENTS_DIR);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (segmentsDir.list((dir, name) -> name.startsWith("segment-")).length > 1
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, segmentsDir.list((dir, name) -> name.startsWith("segment-")).length);
+    assertEquals(List.of("5", "6"), smallSegments.search("CCCC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenIndexedAndReopened_thenSavedChemicalsFound() throws Exception {
+    Files.writeString(chemicalsMaster.toPath(), "CCCC 5\n", StandardOpenOption.APPEND);
+    searchEngine.add("CCCC", "5");
+    searchEngine.index();
+
+    IndigoSearchEngine reopened = engine(1000, 10, 0);
+    reopened.init(tempDir, chemicalsMaster);
+    assertEquals(List.of("2", "5"), reopened.search("CCC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenChemicalsSavedAfterIndexing_thenFoundOnStartup() throws Exception {
+    Files.writeString(chemicalsMaster.toPath(), "CCCC 5\n", StandardOpenOption.APPEND);
+
+    IndigoSearchEngine reopened = engine(1000, 10, 0);
+    reopened.init(tempDir, chemicalsMaster);
+    assertEquals(List.of("2", "5"), reopened.search("CCC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenFewerSessionsThanVerifyingThreads_thenAllCandidatesVerified() throws Exception {
+    IndigoSearchEngine oneSession =
+        new IndigoSearchEngine(new IndigoSessionPool(1, 1000, 30000), 1000, 10, 4);
+    oneSession.init(new File(tempDir, "oneSession"), chemicalsMaster);
+    List<String> expected = new ArrayList<>(List.of("2", "4"));
+    for (int i = 0; i < CandidateVerifier.CHUNK_SIZE * 4; i++) {
+      String id = String.valueOf(100 + i);
+      oneSession.add("CC" + "O".repeat(i % 7), id);
+      expected.add(id);
+    }
+    assertEquals(expected, oneSession.search("CC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenManyCandidates_thenVerifiedInParallelInSaveOrder() throws Exception {
+    IndigoSearchEngine parallel = engine(1000, 10, 4);
+    parallel.init(new File(tempDir, "parallel"), chemicalsMaster);
+    List<String> expected = new ArrayList<>(List.of("2", "4"));
+    for (int i = 0; i < CandidateVerifier.CHUNK_SIZE * 4; i++) {
+      String id = String.valueOf(100 + i);
+      parallel.add("CC" + "C".repeat(i % 5) + "N", id);
+      expected.add(id);
+    }
+    assertEquals(expected, parallel.search("CC", SearchType.SUBSTRUCTURE));
+  }
+
+  @Test
+  public void whenResumedFromCursor_thenFollowingHitsFoundAcrossSegments() throws Exception {
+    searchEngine.index();
+    searchEngine.add("CCCC", "5");
+
+    List<SearchHit> first = searchEngine.searchHits("CC", SearchType.SUBSTRUCTURE, null).toList();
+    assertEquals(List.of("2", "4", "5"), first.stream().map(SearchHit::chemicalId).toList());
+
+    List<String> resumed =
+        searchEngine
+            .searchHits("CC", SearchType.SUBSTRUCTURE, first.get(0).cursor())
+            .map(SearchHit::chemicalId)
+            .toList();
+    assertEquals(List.of("4", "5"), resumed);
+  }
+
+  @Test
+  public void whenExactSearchResumedFromCursor_thenEarlierDuplicatesSkipped() {
+    searchEngine.add("CCC", "5");
+    List<SearchHit> hits = searchEngine.searchHits("CCC", SearchType.EXACT, null).toList();
+    assertEquals(List.of("2", "5"), hits.stream().map(SearchHit::chemicalId).toList());
+    assertEquals(
+        List.of("5"),
+        searchEngine
+            .searchHits("CCC", SearchType.EXACT, hits.get(0).cursor())
+            .map(SearchHit::chemicalId)
+            .toList());
+  }
+
+  @Test
+  public void whenSimilaritySearch_thenHitsRankedMostSimilarFirst() {
+    List<SearchHit> hits = searchEngine.similarityHits("CCC", 0.1, 10).toList();
+    assertEquals("2", hits.get(0).chemicalId());
+    assertEquals(1.0, hits.get(0).similarity(), 1e-9);
+    for (int i = 1; i < hits.size(); i++) {
+      assertTrue(hits.get(i - 1).similarity() >= hits.get(i).similarity());
+    }
+  }
+
+  @Test
+  public void whenSimilaritySearchAfterIndexing_thenSegmentsAndRecentChemicalsFound()
+      throws Exception {
+    searchEngine.index();
+    searchEngine.add("CCC", "5");
+    assertEquals(
+        List.of("2", "5"),
+        searchEngine.similarityHits("CCC", 1.0, 10).map(SearchHit::chemicalId).toList());
+  }
+
+  @Test
+  public void whenSimilaritySearchWithTopK_thenOnlyMostSimilarKept() throws Exception {
+    searchEngine.index();
+    assertEquals(
+        List.of("2"),
+        searchEngine.similarityHits("CCC", 0.01, 1).map(SearchHit::chemicalId).toList());
+  }
+
+  @Test
+  public void whenSimilaritySearchWithHighThreshold_thenDissimilarChemicalsNotFound() {
+    assertTrue(
+        searchEngine
+            .similarityHits("CCC", 0.99, 10)
+            .noneMatch(hit -> hit.chemicalId().equals("3")));
+  }
+
+  @Test
+  public void whenCleared_thenNothingFound() throws Exception {
+    searchEngine.clear();
+    assertTrue(searchEngine.search("C", SearchType.SUBSTRUCTURE).isEmpty());
+  }
+
+  @Test
+  public void whenInvalidSearchTerm_thenThrowsException() {
+    assertThrows(
+        ChemistryException.class, () -> searchEngine.search("not-smiles(", SearchType.EXACT));
+  }
+}
@@ -0,0 +1,46 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class BatchesTest {
+
+  ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @AfterEach
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void whenBatchMapped_thenResultsInBatchOrder() {
+    List<Integer> lengths =
+        Batches.mapInParallel(List.of("CCCC", "C", "CCC", "CC"), String::length, executor);
+    assertEquals(List.of(4, 1, 3, 2), lengths);
+  }
+
+  @Test
+  public void whenItemThrows_thenExceptionRethrownUnwrapped() {
+    ChemistryException thrown =
+        assertThrows(
+            ChemistryException.class,
+            () ->
+                Batches.mapInParallel(
+                    List.of("C", "invalid"),
+                    item -> {
+                      if (item.equals("invalid")) {
+                        throw new ChemistryException("Unable to convert " + item);
+                      }
+                      return item;
+                    },
+                    executor));
+    assertEquals("Unable to convert invalid", thrown.getMessage());
+  }
+}
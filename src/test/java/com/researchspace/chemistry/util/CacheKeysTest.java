@@ -0,0 +1,27 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class CacheKeysTest {
+
+  @Test
+  public void whenSamePartsSplitDifferently_thenKeysDiffer() {
+    assertNotEquals(CacheKeys.of("ab", "c"), CacheKeys.of("a", "bc"));
+  }
+
+  @Test
+  public void whenPartNull_thenSameKeyAsEmpty() {
+    assertEquals(CacheKeys.of("smi", null), CacheKeys.of("smi", ""));
+  }
+
+  @Test
+  public void whenSameInputAsTextAndBytes_thenKeysDiffer() {
+    byte[] bytes = "CCC".getBytes(StandardCharsets.UTF_8);
+    assertNotEquals(CacheKeys.of("smi", "CCC"), CacheKeys.of(bytes, "smi"));
+    assertEquals(CacheKeys.of(bytes, "smi"), CacheKeys.of(bytes.clone(), "smi"));
+  }
+}
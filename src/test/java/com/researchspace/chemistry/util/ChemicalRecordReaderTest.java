@@ -0,0 +1,64 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.researchspace.chemistry.util.ChemicalRecordReader.RecordFormat;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class ChemicalRecordReaderTest {
+
+  private static final String MOLFILE =
+      """
+
+            Ketcher  1
+
+        1  0  0  0  0  0  0  0  0  0999 V2000
+          0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0
+      M  END
+      """;
+
+  @Test
+  public void whenSmiles_thenChunkedByLineSkippingBlankLines() throws IOException {
+    ChemicalRecordReader reader = reader("CCC\n\nC1CCCCC1 cyclohexane\nCO\n", RecordFormat.SMILES);
+
+    assertEquals(Optional.of("CCC\nC1CCCCC1 cyclohexane\n"), reader.nextChunk(2));
+    assertEquals(Optional.of("CO\n"), reader.nextChunk(2));
+    assertTrue(reader.nextChunk(2).isEmpty());
+  }
+
+  @Test
+  public void whenSdf_thenChunkedByRecord() throws IOException {
+    String record = MOLFILE + "$$$$\n";
+    ChemicalRecordReader reader = reader(record + record + record, RecordFormat.SDF);
+
+    assertEquals(Optional.of(record + record), reader.nextChunk(2));
+    assertEquals(Optional.of(record), reader.nextChunk(2));
+    assertTrue(reader.nextChunk(2).isEmpty());
+  }
+
+  @Test
+  public void whenLastSdfRecordUnterminated_thenTerminated() throws IOException {
+    ChemicalRecordReader reader = reader(MOLFILE, RecordFormat.SDF);
+
+    assertEquals(Optional.of(MOLFILE + "$$$$\n"), reader.nextChunk(2));
+    assertTrue(reader.nextChunk(2).isEmpty());
+  }
+
+  @Test
+  public void whenFormatNotMultiRecord_thenNoRecordFormat() {
+    assertEquals(Optional.of(RecordFormat.SDF), RecordFormat.of("SDF"));
+    assertEquals(Optional.of(RecordFormat.SMILES), RecordFormat.of("smi"));
+    assertTrue(RecordFormat.of("cdxml").isEmpty());
+    assertTrue(RecordFormat.of(null).isEmpty());
+  }
+
+  private static ChemicalRecordReader reader(String input, RecordFormat format) {
+    return new ChemicalRecordReader(
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), format);
+  }
+}
@@ -0,0 +1,29 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class CommandExecutorTest {
+
+  CommandExecutor commandExecutor = new CommandExecutor();
+
+  @Test
+  public void whenInputPiped_thenStdoutReturnedAsBytes() throws Exception {
+    byte[] input = {0, 1, 2, (byte) 0xff, '\n', 3};
+    assertArrayEquals(input, commandExecutor.executeCommand(new ProcessBuilder("cat"), input));
+  }
+
+  @Test
+  public void whenInputLargerThanPipeBuffer_thenDoesNotBlock() throws Exception {
+    byte[] input = new byte[1024 * 1024];
+    assertArrayEquals(input, commandExecutor.executeCommand(new ProcessBuilder("cat"), input));
+  }
+
+  @Test
+  public void whenProcessDoesNotReadInput_thenOutputStillReturned() throws Exception {
+    byte[] output =
+        commandExecutor.executeCommand(new ProcessBuilder("echo", "C"), new byte[1024 * 1024]);
+    assertArrayEquals("C\n".getBytes(), output);
+  }
+}
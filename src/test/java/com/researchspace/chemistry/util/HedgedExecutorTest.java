@@ -0,0 +1,159 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.researchspace.chemistry.ChemistryException;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+public class HedgedExecutorTest {
+
+  @Test
+  public void whenDisabled_thenFallbackOnlyRunAfterPrimaryFails() {
+    HedgedExecutor executor = new HedgedExecutor(false, 95, 10, 10);
+    AtomicBoolean fallbackRun = new AtomicBoolean();
+
+    Optional<String> result =
+        executor.execute("test", () -> Optional.of("primary"), fallback(fallbackRun, "fallback"));
+
+    assertEquals(Optional.of("primary"), result);
+    assertFalse(fallbackRun.get());
+    assertEquals(
+        Optional.of("fallback"),
+        executor.execute("test", Optional::empty, () -> Optional.of("fallback")));
+  }
+
+  @Test
+  public void whenPrimaryAnswersQuickly_thenFallbackNotStarted() {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 1000);
+    AtomicBoolean fallbackRun = new AtomicBoolean();
+
+    Optional<String> result =
+        executor.execute("test", () -> Optional.of("primary"), fallback(fallbackRun, "fallback"));
+
+    assertEquals(Optional.of("primary"), result);
+    assertFalse(fallbackRun.get());
+  }
+
+  @Test
+  public void whenPrimaryIsSlow_thenFallbackWinsAndPrimaryCancelled() throws Exception {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 50);
+    CountDownLatch primaryInterrupted = new CountDownLatch(1);
+
+    Optional<String> result =
+        executor.execute(
+            "test",
+            () -> {
+              try {
+                Thread.sleep(10_000);
+                return Optional.of("primary");
+              } catch (InterruptedException e) {
+                primaryInterrupted.countDown();
+                return Optional.empty();
+              }
+            },
+            () -> Optional.of("fallback"));
+
+    assertEquals(Optional.of("fallback"), result);
+    assertTrue(primaryInterrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void whenSlowPrimaryFinishesFirst_thenPrimaryWins() {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 50);
+
+    Optional<String> result =
+        executor.execute(
+            "test",
+            () -> {
+              sleep(200);
+              return Optional.of("primary");
+            },
+            () -> {
+              sleep(5_000);
+              return Optional.of("fallback");
+            });
+
+    assertEquals(Optional.of("primary"), result);
+  }
+
+  @Test
+  public void whenHedgingThreadsBusy_thenFallbackNotStarted() {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 50, 1);
+    AtomicBoolean fallbackRun = new AtomicBoolean();
+
+    Optional<String> result =
+        executor.execute(
+            "test",
+            () -> {
+              sleep(200);
+              return Optional.of("primary");
+            },
+            fallback(fallbackRun, "fallback"));
+
+    assertEquals(Optional.of("primary"), result);
+    assertFalse(fallbackRun.get());
+  }
+
+  @Test
+  public void whenBothFail_thenEmpty() {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 50);
+
+    Optional<String> result =
+        executor.execute(
+            "test",
+            () -> {
+              sleep(200);
+              return Optional.empty();
+            },
+            Optional::empty);
+
+    assertEquals(Optional.empty(), result);
+  }
+
+  @Test
+  public void whenCallerInterrupted_thenThrowsAndStaysInterrupted() {
+    HedgedExecutor executor = new HedgedExecutor(true, 95, 10, 50);
+    AtomicBoolean fallbackRun = new AtomicBoolean();
+
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(
+          ChemistryException.class,
+          () ->
+              executor.execute(
+                  "test",
+                  () -> {
+                    sleep(5_000);
+                    return Optional.of("primary");
+                  },
+                  fallback(fallbackRun, "fallback")));
+      assertTrue(Thread.currentThread().isInterrupted());
+      assertFalse(fallbackRun.get());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  private static Supplier<Optional<String>> fallback(AtomicBoolean run, String result) {
+    return () -> {
+      run.set(true);
+      return Optional.of(result);
+    };
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
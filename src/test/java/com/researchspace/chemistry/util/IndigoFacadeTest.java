@@ -0,0 +1,36 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.researchspace.chemistry.util.ChemicalRecordReader.RecordFormat;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class IndigoFacadeTest {
+
+  @Test
+  public void whenRecordsWritten_thenSessionAlreadyReturnedToPool() throws Exception {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 100);
+    IndigoFacade indigoFacade = new IndigoFacade(pool);
+    ChemicalRecordReader reader =
+        new ChemicalRecordReader(
+            new ByteArrayInputStream(
+                "CCO ethanol\nC1CC1 cyclopropane\n".getBytes(StandardCharsets.UTF_8)),
+            RecordFormat.SMILES);
+    // a slow client's output, which would time out borrowing the only session if it were held
+    StringWriter output =
+        new StringWriter() {
+          @Override
+          public void flush() {
+            pool.borrow().close();
+          }
+        };
+
+    int failed = indigoFacade.convertRecords(reader, RecordFormat.SMILES, output);
+
+    assertEquals(0, failed);
+    assertEquals(2, output.toString().lines().count());
+  }
+}
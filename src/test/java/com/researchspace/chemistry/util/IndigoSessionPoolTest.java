@@ -0,0 +1,87 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.researchspace.chemistry.ChemistryException;
+import org.junit.jupiter.api.Test;
+
+public class IndigoSessionPoolTest {
+
+  @Test
+  public void whenSessionReturned_thenReusedByNextBorrower() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 100);
+    IndigoSession first = pool.borrow();
+    first.close();
+    try (IndigoSession second = pool.borrow()) {
+      assertSame(first, second);
+    }
+  }
+
+  @Test
+  public void whenSessionUsedMaxTimes_thenReplaced() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 2, 100);
+    IndigoSession first = pool.borrow();
+    first.close();
+    pool.borrow().close();
+    try (IndigoSession replacement = pool.borrow()) {
+      assertNotSame(first, replacement);
+    }
+  }
+
+  @Test
+  public void whenSessionRetired_thenFreed() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 1, 100);
+    IndigoSession retired = pool.borrow();
+    retired.close();
+    assertTrue(retired.isDisposed());
+
+    try (IndigoSession replacement = pool.borrow()) {
+      assertFalse(replacement.isDisposed());
+      replacement.indigo().loadMolecule("CCC");
+    }
+  }
+
+  @Test
+  public void whenPoolShutDown_thenIdleSessionsFreed() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 100);
+    IndigoSession session = pool.borrow();
+    session.close();
+    pool.shutdown();
+    assertTrue(session.isDisposed());
+  }
+
+  @Test
+  public void whenAllSessionsBorrowed_thenBorrowTimesOut() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 10);
+    try (IndigoSession session = pool.borrow()) {
+      assertThrows(ChemistryException.class, pool::borrow);
+    }
+  }
+
+  @Test
+  public void whenSessionClosedTwice_thenOnlyReturnedOnce() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 10);
+    IndigoSession session = pool.borrow();
+    session.close();
+    session.close();
+    try (IndigoSession borrowed = pool.borrow()) {
+      assertThrows(ChemistryException.class, pool::borrow);
+    }
+  }
+
+  @Test
+  public void whenOptionsSetWhileBorrowed_thenResetOnReturn() {
+    IndigoSessionPool pool = new IndigoSessionPool(1, 10, 100);
+    try (IndigoSession session = pool.borrow()) {
+      session.indigo().setOption("render-output-format", "svg");
+    }
+    try (IndigoSession session = pool.borrow()) {
+      // loading still works with the default options restored
+      session.indigo().loadMolecule("CCC");
+    }
+  }
+}
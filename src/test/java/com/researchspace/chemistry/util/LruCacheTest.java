@@ -0,0 +1,96 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class LruCacheTest {
+
+  @Test
+  public void whenFull_thenLeastRecentlyUsedEvicted() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.get("a");
+    cache.put("c", "3");
+
+    assertEquals(Optional.of("1"), cache.get("a"));
+    assertTrue(cache.get("b").isEmpty());
+    assertEquals(Optional.of("3"), cache.get("c"));
+    assertEquals(1, cache.stats().evictions());
+  }
+
+  @Test
+  public void whenBoundedByWeight_thenEvictedUntilWithinBound() {
+    LruCache<String, String> cache = new LruCache<>(5, String::length);
+    cache.put("a", "12");
+    cache.put("b", "34");
+    cache.put("c", "5678");
+
+    assertTrue(cache.get("a").isEmpty());
+    assertTrue(cache.get("b").isEmpty());
+    assertEquals(4, cache.stats().weight());
+  }
+
+  @Test
+  public void whenValueHeavierThanCache_thenNotStored() {
+    LruCache<String, String> cache = new LruCache<>(3, String::length);
+    cache.put("a", "1234");
+    assertEquals(0, cache.stats().size());
+  }
+
+  @Test
+  public void whenDisabled_thenNothingCached() {
+    LruCache<String, String> cache = new LruCache<>(0);
+    cache.put("a", "1");
+    assertTrue(cache.get("a").isEmpty());
+  }
+
+  @Test
+  public void whenLookedUp_thenHitsAndMissesCounted() {
+    LruCache<String, String> cache = new LruCache<>(10);
+    cache.put("a", "1");
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+
+    CacheStats stats = cache.stats();
+    assertEquals(2, stats.hits());
+    assertEquals(1, stats.misses());
+    assertEquals(2.0 / 3, stats.hitRate(), 1e-9);
+  }
+
+  @Test
+  public void whenCheckedForKey_thenNotCountedOrMadeRecent() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "1");
+    cache.put("b", "2");
+
+    assertTrue(cache.containsKey("a"));
+    assertFalse(cache.containsKey("c"));
+    cache.put("c", "3");
+
+    assertFalse(cache.containsKey("a"));
+    assertEquals(0, cache.stats().hits());
+    assertEquals(0, cache.stats().misses());
+  }
+
+  @Test
+  public void whenPeeked_thenNotCountedButMadeRecent() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "1");
+    cache.put("b", "2");
+
+    assertEquals(Optional.of("1"), cache.peek("a"));
+    assertEquals(Optional.empty(), cache.peek("c"));
+    cache.put("c", "3");
+
+    assertTrue(cache.containsKey("a"));
+    assertFalse(cache.containsKey("b"));
+    assertEquals(0, cache.stats().hits());
+    assertEquals(0, cache.stats().misses());
+  }
+}
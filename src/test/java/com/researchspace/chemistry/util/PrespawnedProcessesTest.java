@@ -0,0 +1,82 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// runs standard commands in place of obabel, which read stdin and write stdout in the same way
+public class PrespawnedProcessesTest {
+
+  PrespawnedProcesses processes = new PrespawnedProcesses(new CommandExecutor(), 2, 4, 1000);
+
+  @AfterEach
+  public void shutdown() {
+    processes.shutdown();
+  }
+
+  @Test
+  public void whenCommandExecuted_thenInputWrittenToStdinAndOutputLinesReturned()
+      throws Exception {
+    assertEquals(List.of("C", "CC"), processes.execute(List.of("cat"), "C\nCC\n".getBytes()));
+  }
+
+  @Test
+  public void whenCommandRepeated_thenEachJobGetsItsOwnOutput() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      assertEquals(
+          List.of("line " + i), processes.execute(List.of("cat"), ("line " + i).getBytes()));
+    }
+  }
+
+  @Test
+  public void whenBinaryOutput_thenBytesReturnedUnchanged() throws Exception {
+    byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, (byte) 0xff};
+    assertArrayEquals(png, processes.executeForBytes(List.of("cat"), png));
+  }
+
+  @Test
+  public void whenJobTakesTooLong_thenTimesOut() {
+    assertThrows(
+        TimeoutException.class, () -> processes.execute(List.of("sleep", "5"), new byte[0]));
+  }
+
+  @Test
+  public void whenSparesChecked_thenCommandsStillRun() throws Exception {
+    processes.execute(List.of("cat"), "C".getBytes());
+    processes.checkSpares();
+    assertEquals(List.of("CC"), processes.execute(List.of("cat"), "CC".getBytes()));
+  }
+
+  @Test
+  public void whenOutputNotAscii_thenDecodedAsUtf8() throws Exception {
+    String chemical = "CCO ethanol-éß";
+    assertEquals(
+        List.of(chemical),
+        processes.execute(List.of("cat"), chemical.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void whenCommandReadsFile_thenRunOnNewProcess(@TempDir File tempDir) throws Exception {
+    File chemicals = new File(tempDir, "chemicals.smi");
+    Files.writeString(chemicals.toPath(), "C 1\nCC 2\n");
+    assertEquals(
+        List.of("C 1", "CC 2"),
+        processes.executeOnNewProcess(List.of("cat", chemicals.getPath()), 0));
+  }
+
+  @Test
+  public void whenCommandOnNewProcessTakesTooLong_thenTimesOut() {
+    assertThrows(
+        TimeoutException.class,
+        () -> processes.executeOnNewProcess(List.of("sleep", "5"), 100));
+  }
+}
@@ -0,0 +1,93 @@
+package com.researchspace.chemistry.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.researchspace.chemistry.util.StructureSniffer.Kind;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class StructureSnifferTest {
+
+  @ParameterizedTest
+  @ValueSource(strings = {"CCC", "c1ccccc1O", "[NH4+]", "C[C@@H](O)CC"})
+  public void whenSmiles_thenMolecule(String smiles) {
+    assertEquals(Kind.MOLECULE, StructureSniffer.sniff(smiles, ""));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"CC.O>>CCO", "(C(=O)O).(OCC)>>(C(=O)OCC).(O)", "CC>O>CCO"})
+  public void whenReactionSmiles_thenReaction(String smiles) {
+    assertEquals(Kind.REACTION, StructureSniffer.sniff(smiles, null));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"C~C", "[C,N]C", "[#6;R]"})
+  public void whenSmarts_thenQueryMolecule(String smarts) {
+    assertEquals(Kind.QUERY_MOLECULE, StructureSniffer.sniff(smarts, ""));
+  }
+
+  @Test
+  public void whenQueryReactionSmarts_thenQueryReaction() {
+    assertEquals(Kind.QUERY_REACTION, StructureSniffer.sniff("[C,N]>>C", ""));
+  }
+
+  @Test
+  public void whenRxnFile_thenReaction() {
+    assertEquals(Kind.REACTION, StructureSniffer.sniff("$RXN\n\n  -INDIGO-\n\n  1  1\n$MOL\n", ""));
+  }
+
+  @Test
+  public void whenMolfile_thenMolecule() {
+    String molfile = "\n  -INDIGO-\n\n  1  0  0  0  0  0  0  0  0  0999 V2000\nM  END\n";
+    assertEquals(Kind.MOLECULE, StructureSniffer.sniff(molfile, "mol"));
+  }
+
+  @Test
+  public void whenReactionFormat_thenReaction() {
+    assertEquals(Kind.REACTION, StructureSniffer.sniff("anything", "rxn"));
+  }
+
+  @Test
+  public void whenCdxmlWithSteps_thenReaction() {
+    String cdxml = "<?xml version=\"1.0\"?><CDXML><page><scheme><step/></scheme></page></CDXML>";
+    assertEquals(Kind.REACTION, StructureSniffer.sniff(cdxml, "cdxml"));
+    assertEquals(
+        Kind.MOLECULE, StructureSniffer.sniff("<?xml version=\"1.0\"?><CDXML></CDXML>", ""));
+  }
+
+  @Test
+  public void whenKetWithArrow_thenReaction() {
+    String ket = "{\"root\":{\"nodes\":[{\"type\": \"arrow\"}]}}";
+    assertEquals(Kind.REACTION, StructureSniffer.sniff(ket, "ket"));
+    assertEquals(Kind.MOLECULE, StructureSniffer.sniff("{\"root\":{\"nodes\":[]}}", "ket"));
+  }
+
+  @Test
+  public void whenBase64CdxWithReactionStep_thenReaction() {
+    byte[] molecule = "VjCD0100\u0000\u0080\u0004\u0080".getBytes(StandardCharsets.ISO_8859_1);
+    byte[] reaction = "VjCD0100\u0000\u0080\u000e\u0080".getBytes(StandardCharsets.ISO_8859_1);
+    assertEquals(
+        Kind.MOLECULE,
+        StructureSniffer.sniff(Base64.getEncoder().encodeToString(molecule), "cdx"));
+    assertEquals(
+        Kind.REACTION,
+        StructureSniffer.sniff(Base64.getEncoder().encodeToString(reaction), "cdx"));
+  }
+
+  @Test
+  public void whenRawCdxBytesWithReactionStep_thenReaction() {
+    byte[] molecule = "VjCD0100\u0000\u0080\u0004\u0080".getBytes(StandardCharsets.ISO_8859_1);
+    byte[] reaction = "VjCD0100\u0000\u0080\u000e\u0080".getBytes(StandardCharsets.ISO_8859_1);
+    assertEquals(Kind.MOLECULE, StructureSniffer.sniff(molecule, "cdx"));
+    assertEquals(Kind.REACTION, StructureSniffer.sniff(reaction, "cdx"));
+  }
+
+  @Test
+  public void whenTextBytes_thenSniffedAsText() {
+    byte[] smiles = "CC.O>>CCO".getBytes(StandardCharsets.UTF_8);
+    assertEquals(Kind.REACTION, StructureSniffer.sniff(smiles, null));
+  }
+}